@@ -0,0 +1,46 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.jmh;
+
+import ai.koryki.antlr.AbstractReader;
+import ai.koryki.h2.northwind.NorthwindDatabase;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The demo and sample queries used by the northwind tests.
+ */
+final class Corpus {
+
+    private static final String ROOT = "/ai/koryki/databases/northwind/";
+
+    private Corpus() {
+    }
+
+    /**
+     * @param name query as folder/name, e.g. demo/ordertimerange
+     */
+    static String read(String name) throws IOException {
+        try (InputStream in = NorthwindDatabase.class.getResourceAsStream(ROOT + name + ".kql")) {
+            if (in == null) {
+                throw new IllegalArgumentException("no such query: " + name);
+            }
+            return AbstractReader.convert(in);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.jmh;
+
+import ai.koryki.antlr.kql.KQLReader;
+import ai.koryki.h2.northwind.NorthwindDatabase;
+import ai.koryki.h2.northwind.NorthwindModel;
+import ai.koryki.h2.northwind.NorthwindService;
+import ai.koryki.h2.northwind.ResultWriter;
+import ai.koryki.iql.Bean2Sql;
+import ai.koryki.iql.RelationResolver;
+import ai.koryki.iql.query.Query;
+import ai.koryki.kql.KQL2Bean;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetProvider;
+import java.io.OutputStream;
+import java.sql.ResultSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Each stage of a KQL query on its own, every stage starts from the output of the previous one
+ * prepared during setup, and the whole pipeline through {@link NorthwindService#executeKQL(String)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PipelineBenchmark {
+
+    @Param({"demo/customersmorethan10ordersin2023", "demo/ordertimerange", "demo/unorderedproductsin012023",
+            "demo/employeeranking", "demo/employeeswithorders",
+            "samples/products", "samples/customerswithorders", "samples/orderanalysis",
+            "samples/supplychainriskmanagement"})
+    public String query;
+
+    private NorthwindDatabase database;
+    private NorthwindService service;
+    private RelationResolver resolver;
+    private String kql;
+    private KQLReader reader;
+    private Query bean;
+    private String sql;
+    private int columns;
+    private CachedRowSet rows;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        resolver = NorthwindModel.get().getResolver();
+
+        database = new NorthwindDatabase("jmh_pipeline");
+        service = new NorthwindService(database);
+        // measure translation on every call
+        service.getQueryCache().setMaxSize(0);
+
+        kql = Corpus.read(query);
+        reader = new KQLReader(kql, true);
+        bean = new KQL2Bean(reader.getQuery(), reader.getDescription()).toBean();
+        sql = new Bean2Sql(resolver, bean).toEnhancedSql();
+        columns = Bean2Sql.collectOut(bean.getSet()).size();
+        rows = RowSetProvider.newFactory().createCachedRowSet();
+        database.query(s -> {
+            try (ResultSet r = s.executeQuery(sql)) {
+                rows.populate(r);
+            }
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        database.close();
+    }
+
+    @Benchmark
+    public KQLReader parse() throws Exception {
+        return new KQLReader(kql, true);
+    }
+
+    @Benchmark
+    public Query toBean() throws Exception {
+        return new KQL2Bean(reader.getQuery(), reader.getDescription()).toBean();
+    }
+
+    @Benchmark
+    public String toSql() throws Exception {
+        return new Bean2Sql(resolver, bean).toEnhancedSql();
+    }
+
+    @Benchmark
+    public void execute(Blackhole blackhole) throws Exception {
+        database.query(s -> {
+            try (ResultSet r = s.executeQuery(sql)) {
+                while (r.next()) {
+                    for (int i = 1; i <= columns; i++) {
+                        blackhole.consume(r.getString(i));
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Streams a copy of the result held in memory through the production JSON writer.
+     */
+    @Benchmark
+    public int serialize() throws Exception {
+        rows.beforeFirst();
+        return ResultWriter.write(rows, columns, OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public String pipeline() {
+        return service.executeKQL(kql);
+    }
+}
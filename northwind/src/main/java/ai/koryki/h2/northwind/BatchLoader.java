@@ -0,0 +1,117 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Groups consecutive {@code INSERT INTO table VALUES (...)} statements of the same table
+ * into multi-row inserts and sends them to the database as JDBC batches.
+ * Any other statement flushes pending rows and is executed as is.
+ */
+class BatchLoader implements AutoCloseable {
+
+    static final int ROWS_PER_INSERT = 250;
+    static final int INSERTS_PER_BATCH = 16;
+
+    private static final Pattern INSERT = Pattern.compile("INSERT\\s+INTO\\s+(\\S+)\\s+VALUES\\s*(\\(.*\\))",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private final Statement stmt;
+    private final StringBuilder values = new StringBuilder();
+    private String table;
+    private int rows;
+    private int inserts;
+    private long total;
+
+    BatchLoader(Connection conn) throws SQLException {
+        this.stmt = conn.createStatement();
+    }
+
+    void add(String statement) throws SQLException {
+        Matcher m = INSERT.matcher(statement);
+        if (!m.matches()) {
+            flush();
+            stmt.execute(statement);
+            return;
+        }
+
+        String t = m.group(1);
+        if (!t.equalsIgnoreCase(table)) {
+            addInsert();
+            table = t;
+        }
+        if (rows > 0) {
+            values.append(", ");
+        }
+        values.append(m.group(2));
+        rows++;
+        total++;
+        if (rows == ROWS_PER_INSERT) {
+            addInsert();
+        }
+    }
+
+    /**
+     * @return table of an {@code INSERT INTO table VALUES (...)} statement, null for any other statement
+     */
+    static String table(String statement) {
+        Matcher m = INSERT.matcher(statement);
+        return m.matches() ? m.group(1) : null;
+    }
+
+    /**
+     * Send all pending rows to the database.
+     */
+    void flush() throws SQLException {
+        addInsert();
+        if (inserts > 0) {
+            stmt.executeBatch();
+            inserts = 0;
+        }
+    }
+
+    /**
+     * @return number of rows added so far
+     */
+    long getRows() {
+        return total;
+    }
+
+    private void addInsert() throws SQLException {
+        if (rows == 0) {
+            return;
+        }
+        stmt.addBatch("INSERT INTO " + table + " VALUES " + values);
+        values.setLength(0);
+        rows = 0;
+        inserts++;
+        if (inserts == INSERTS_PER_BATCH) {
+            stmt.executeBatch();
+            inserts = 0;
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        stmt.close();
+    }
+}
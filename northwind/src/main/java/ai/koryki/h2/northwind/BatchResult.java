@@ -0,0 +1,55 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+/**
+ * Outcome of one query of {@link NorthwindService#executeKQLBatch(java.util.List)}.
+ */
+public class BatchResult {
+
+    private final String query;
+    private final String json;
+    private final NorthwindException error;
+
+    BatchResult(String query, String json, NorthwindException error) {
+        this.query = query;
+        this.json = json;
+        this.error = error;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * @return result in the format of {@link NorthwindService#executeKQL(String)}, null if the query failed
+     */
+    public String getJson() {
+        return json;
+    }
+
+    /**
+     * @return failure of the query, null if it succeeded
+     */
+    public NorthwindException getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cancels the queries of a {@link NorthwindService} call from another thread.
+ * A token cancelled before the call starts aborts it right away.
+ */
+public class CancellationToken {
+
+    private final Set<Statement> statements = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled;
+
+    /**
+     * Cancel running statements, the calls fail with {@link QueryAbortedException.Reason#CANCELLED}.
+     */
+    public void cancel() {
+        cancelled = true;
+        for (Statement s : statements) {
+            try {
+                s.cancel();
+            } catch (SQLException e) {
+                // statement already closed
+            }
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    void register(Statement s) {
+        statements.add(s);
+        if (cancelled) {
+            statements.remove(s);
+            throw new QueryAbortedException(QueryAbortedException.Reason.CANCELLED, "Query cancelled");
+        }
+    }
+
+    void unregister(Statement s) {
+        statements.remove(s);
+    }
+}
@@ -0,0 +1,460 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.sql.JDBCType;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Query result stored column by column.
+ * <p>
+ * Each column is read with the accessor matching its {@link ResultSetMetaData#getColumnType(int) SQL type}
+ * into a primitive array where possible: integer types into {@code int[]} or {@code long[]}, floating point
+ * types into {@code float[]} or {@code double[]}, dates into {@code int[]} of epoch days. Decimals keep
+ * their {@link BigDecimal}, everything else is read as String. Row and column indexes start at 0.
+ */
+public class ColumnarResult {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final String[] names;
+    private final int[] types;
+    private final Column[] columns;
+    private int rows;
+
+    private ColumnarResult(ResultSetMetaData meta, int columnCount) throws SQLException {
+        names = new String[columnCount];
+        types = new int[columnCount];
+        columns = new Column[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            names[i] = meta.getColumnLabel(i + 1);
+            types[i] = meta.getColumnType(i + 1);
+            columns[i] = column(types[i]);
+        }
+    }
+
+    /**
+     * Read all remaining rows of r.
+     */
+    public static ColumnarResult read(ResultSet r) throws SQLException {
+        return read(r, r.getMetaData().getColumnCount(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Read the first columns of at most maxRows remaining rows of r.
+     */
+    public static ColumnarResult read(ResultSet r, int columnCount, int maxRows) throws SQLException {
+        return read(r, columnCount, maxRows, Execution.unlimited());
+    }
+
+    static ColumnarResult read(ResultSet r, int columnCount, int maxRows, Execution execution) throws SQLException {
+        ColumnarResult result = new ColumnarResult(r.getMetaData(), columnCount);
+        while (result.rows < maxRows && r.next()) {
+            execution.row(result.add(r));
+        }
+        return result;
+    }
+
+    /**
+     * Like {@link #read(ResultSet, int, int, Execution)}, but starting with the row r is positioned on.
+     */
+    static ColumnarResult readCurrent(ResultSet r, int columnCount, int maxRows, Execution execution) throws SQLException {
+        ColumnarResult result = new ColumnarResult(r.getMetaData(), columnCount);
+        if (maxRows > 0) {
+            execution.row(result.add(r));
+        }
+        while (result.rows < maxRows && r.next()) {
+            execution.row(result.add(r));
+        }
+        return result;
+    }
+
+    /**
+     * @return estimated heap size of the row values
+     */
+    private long add(ResultSet r) throws SQLException {
+        long size = 0;
+        for (int i = 0; i < columns.length; i++) {
+            size += columns[i].read(r, i + 1, rows);
+        }
+        rows++;
+        return size;
+    }
+
+    public int getRowCount() {
+        return rows;
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    public String getColumnName(int column) {
+        return names[column];
+    }
+
+    /**
+     * @return SQL type of the column, see {@link Types}
+     */
+    public int getColumnType(int column) {
+        return types[column];
+    }
+
+    public boolean isNull(int row, int column) {
+        return columns[check(row, column)].nulls.get(row);
+    }
+
+    /**
+     * @return value of a TINYINT, SMALLINT or INTEGER column, 0 if null
+     * @throws IllegalArgumentException for columns of other types
+     */
+    public int getInt(int row, int column) {
+        Column c = columns[check(row, column)];
+        if (c instanceof IntColumn) {
+            return ((IntColumn) c).values[row];
+        }
+        throw type(column, "int");
+    }
+
+    /**
+     * @return value of an integer column, 0 if null
+     * @throws IllegalArgumentException for columns of other types
+     */
+    public long getLong(int row, int column) {
+        Column c = columns[check(row, column)];
+        if (c instanceof IntColumn) {
+            return ((IntColumn) c).values[row];
+        } else if (c instanceof LongColumn) {
+            return ((LongColumn) c).values[row];
+        }
+        throw type(column, "long");
+    }
+
+    /**
+     * @return value of a numeric column, 0 if null
+     * @throws IllegalArgumentException for columns of other types
+     */
+    public double getDouble(int row, int column) {
+        Column c = columns[check(row, column)];
+        if (c instanceof DoubleColumn) {
+            return ((DoubleColumn) c).values[row];
+        } else if (c instanceof FloatColumn) {
+            return ((FloatColumn) c).values[row];
+        } else if (c instanceof IntColumn || c instanceof LongColumn) {
+            return getLong(row, column);
+        } else if (c instanceof DecimalColumn) {
+            BigDecimal value = ((DecimalColumn) c).values[row];
+            return value == null ? 0 : value.doubleValue();
+        }
+        throw type(column, "double");
+    }
+
+    /**
+     * @return value of a date column or null
+     * @throws IllegalArgumentException for columns of other types
+     */
+    public LocalDate getDate(int row, int column) {
+        Column c = columns[check(row, column)];
+        if (c instanceof DateColumn) {
+            return (LocalDate) getObject(row, column);
+        }
+        throw type(column, "date");
+    }
+
+    /**
+     * @return value boxed as Integer, Long, Float, Double, LocalDate, BigDecimal or String, null if null
+     */
+    public Object getObject(int row, int column) {
+        Column c = columns[check(row, column)];
+        return c.nulls.get(row) ? null : c.get(row);
+    }
+
+    /**
+     * @return value formatted like {@link ResultSet#getString(int)} of H2, null if null
+     */
+    public String getString(int row, int column) {
+        Column c = columns[check(row, column)];
+        return c.nulls.get(row) ? null : c.getString(row);
+    }
+
+    /**
+     * Convert to the JSON format of {@link NorthwindService#executeKQL(String)}, values are written as Strings.
+     */
+    public String toJson() {
+        StringWriter out = new StringWriter();
+        try (JsonGenerator g = ResultWriter.generator(out)) {
+            writeJson(g, 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * @param firstColumn key of the first column
+     */
+    public void writeJson(JsonGenerator g, int firstColumn) throws IOException {
+        g.writeStartObject();
+        for (int row = 0; row < rows; row++) {
+            g.writeFieldId(row);
+            g.writeStartObject();
+            for (int column = 0; column < columns.length; column++) {
+                g.writeFieldId(firstColumn + column);
+                g.writeString(getString(row, column));
+            }
+            g.writeEndObject();
+        }
+        g.writeEndObject();
+    }
+
+    private int check(int row, int column) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("row " + row + ", rows: " + rows);
+        }
+        if (column < 0 || column >= columns.length) {
+            throw new IndexOutOfBoundsException("column " + column + ", columns: " + columns.length);
+        }
+        return column;
+    }
+
+    private IllegalArgumentException type(int column, String accessor) {
+        String type;
+        try {
+            type = JDBCType.valueOf(types[column]).getName();
+        } catch (IllegalArgumentException e) {
+            type = String.valueOf(types[column]);
+        }
+        return new IllegalArgumentException("Column " + column + " (" + names[column] + ") of type " + type
+                + " cannot be read as " + accessor);
+    }
+
+    private static Column column(int type) {
+        switch (type) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return new IntColumn();
+            case Types.BIGINT:
+                return new LongColumn();
+            case Types.REAL:
+                return new FloatColumn();
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return new DoubleColumn();
+            case Types.DATE:
+                return new DateColumn();
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                return new DecimalColumn();
+            default:
+                return new StringColumn();
+        }
+    }
+
+    private abstract static class Column {
+
+        final BitSet nulls = new BitSet();
+
+        /**
+         * @return estimated heap size of the value
+         */
+        abstract long read(ResultSet r, int index, int row) throws SQLException;
+
+        abstract Object get(int row);
+
+        String getString(int row) {
+            return get(row).toString();
+        }
+    }
+
+    private static class IntColumn extends Column {
+
+        int[] values = new int[INITIAL_CAPACITY];
+
+        @Override
+        long read(ResultSet r, int index, int row) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, row * 2);
+            }
+            values[row] = r.getInt(index);
+            if (r.wasNull()) {
+                nulls.set(row);
+            }
+            return 4;
+        }
+
+        @Override
+        Object get(int row) {
+            return values[row];
+        }
+    }
+
+    private static class LongColumn extends Column {
+
+        long[] values = new long[INITIAL_CAPACITY];
+
+        @Override
+        long read(ResultSet r, int index, int row) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, row * 2);
+            }
+            values[row] = r.getLong(index);
+            if (r.wasNull()) {
+                nulls.set(row);
+            }
+            return 8;
+        }
+
+        @Override
+        Object get(int row) {
+            return values[row];
+        }
+    }
+
+    private static class FloatColumn extends Column {
+
+        float[] values = new float[INITIAL_CAPACITY];
+
+        @Override
+        long read(ResultSet r, int index, int row) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, row * 2);
+            }
+            values[row] = r.getFloat(index);
+            if (r.wasNull()) {
+                nulls.set(row);
+            }
+            return 4;
+        }
+
+        @Override
+        Object get(int row) {
+            return values[row];
+        }
+    }
+
+    private static class DoubleColumn extends Column {
+
+        double[] values = new double[INITIAL_CAPACITY];
+
+        @Override
+        long read(ResultSet r, int index, int row) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, row * 2);
+            }
+            values[row] = r.getDouble(index);
+            if (r.wasNull()) {
+                nulls.set(row);
+            }
+            return 8;
+        }
+
+        @Override
+        Object get(int row) {
+            return values[row];
+        }
+    }
+
+    private static class DateColumn extends Column {
+
+        int[] epochDays = new int[INITIAL_CAPACITY];
+
+        @Override
+        long read(ResultSet r, int index, int row) throws SQLException {
+            if (row == epochDays.length) {
+                epochDays = Arrays.copyOf(epochDays, row * 2);
+            }
+            LocalDate date = r.getObject(index, LocalDate.class);
+            if (date == null) {
+                nulls.set(row);
+            } else {
+                epochDays[row] = (int) date.toEpochDay();
+            }
+            return 4;
+        }
+
+        @Override
+        Object get(int row) {
+            return LocalDate.ofEpochDay(epochDays[row]);
+        }
+    }
+
+    private static class DecimalColumn extends Column {
+
+        BigDecimal[] values = new BigDecimal[INITIAL_CAPACITY];
+
+        @Override
+        long read(ResultSet r, int index, int row) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, row * 2);
+            }
+            values[row] = r.getBigDecimal(index);
+            if (values[row] == null) {
+                nulls.set(row);
+            }
+            return values[row] == null ? 0 : 32;
+        }
+
+        @Override
+        Object get(int row) {
+            return values[row];
+        }
+
+        /**
+         * Like H2, plain notation unless it gets too long.
+         */
+        @Override
+        String getString(int row) {
+            String plain = values[row].toPlainString();
+            return plain.length() < 40 ? plain : values[row].toString();
+        }
+    }
+
+    private static class StringColumn extends Column {
+
+        String[] values = new String[INITIAL_CAPACITY];
+
+        @Override
+        long read(ResultSet r, int index, int row) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, row * 2);
+            }
+            values[row] = r.getString(index);
+            if (values[row] == null) {
+                nulls.set(row);
+            }
+            return values[row] == null ? 0 : 40 + 2L * values[row].length();
+        }
+
+        @Override
+        Object get(int row) {
+            return values[row];
+        }
+    }
+}
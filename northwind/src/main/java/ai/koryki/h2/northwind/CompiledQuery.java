@@ -0,0 +1,53 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+import ai.koryki.iql.query.Out;
+import ai.koryki.iql.query.Query;
+
+import java.util.List;
+
+/**
+ * A kql query translated to SQL. Instances are shared by {@link QueryCache}, the query bean must not be modified.
+ */
+public class CompiledQuery {
+
+    private final Query query;
+    private final String sql;
+    private final List<Out> out;
+
+    public CompiledQuery(Query query, String sql, List<Out> out) {
+        this.query = query;
+        this.sql = sql;
+        this.out = List.copyOf(out);
+    }
+
+    public Query getQuery() {
+        return query;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return output columns of the query
+     */
+    public List<Out> getOut() {
+        return out;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+import org.h2.tools.Csv;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Table data as one gzip compressed CSV resource per table, see {@link LoadMode#CSV}.
+ * <p>
+ * Files are written with H2's {@link Csv} tool: strings quoted, null as empty unquoted field,
+ * binary values as hex. Rows are read back with the same tool and inserted through a prepared
+ * statement batch per table, so no row passes the SQL parser.
+ */
+class CsvData {
+
+    static final String SUFFIX = ".csv.gz";
+
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * Write all tables of conn to directory.
+     */
+    static void write(Connection conn, Path directory) throws IOException, SQLException {
+        Files.createDirectories(directory);
+        for (String table : tables(conn)) {
+            Path file = directory.resolve(table + SUFFIX);
+            try (Statement stmt = conn.createStatement();
+                 ResultSet r = stmt.executeQuery("SELECT * FROM " + table);
+                 Writer out = new BufferedWriter(new OutputStreamWriter(
+                         new GZIPOutputStream(Files.newOutputStream(file)), StandardCharsets.UTF_8))) {
+                new Csv().write(out, r);
+            }
+        }
+    }
+
+    /**
+     * Load all tables of conn from the resources below {@link NorthwindDatabase#CSV}.
+     *
+     * @return false if a resource is missing, nothing is loaded then
+     */
+    static boolean load(Connection conn) throws IOException, SQLException {
+        List<String> tables = tables(conn);
+        for (String table : tables) {
+            if (NorthwindDatabase.class.getResource(resource(table)) == null) {
+                return false;
+            }
+        }
+
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            for (String table : tables) {
+                load(conn, table);
+            }
+            conn.commit();
+        } catch (IOException | SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        return true;
+    }
+
+    private static void load(Connection conn, String table) throws IOException, SQLException {
+        ScriptLoadEvent event = new ScriptLoadEvent();
+        event.begin();
+        boolean[] binary = binaryColumns(conn, table);
+        String parameters = "?, ".repeat(binary.length - 1) + "?";
+        long rows = 0;
+        try (InputStream in = NorthwindDatabase.class.getResourceAsStream(resource(table));
+             Reader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(in), StandardCharsets.UTF_8));
+             ResultSet r = new Csv().read(reader, null);
+             PreparedStatement insert = conn.prepareStatement("INSERT INTO " + table + " VALUES (" + parameters + ")")) {
+            HexFormat hex = HexFormat.of();
+            while (r.next()) {
+                for (int i = 0; i < binary.length; i++) {
+                    String value = r.getString(i + 1);
+                    if (binary[i] && value != null) {
+                        insert.setBytes(i + 1, hex.parseHex(value));
+                    } else {
+                        insert.setString(i + 1, value);
+                    }
+                }
+                insert.addBatch();
+                if (++rows % BATCH_SIZE == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+        event.resource = resource(table);
+        event.statements = rows;
+        event.commit();
+    }
+
+    private static boolean[] binaryColumns(Connection conn, String table) throws SQLException {
+        List<Boolean> binary = new ArrayList<>();
+        try (ResultSet r = conn.getMetaData().getColumns(null, "PUBLIC", table.toUpperCase(Locale.ROOT), null)) {
+            while (r.next()) {
+                int type = r.getInt("DATA_TYPE");
+                binary.add(type == Types.BLOB || type == Types.BINARY || type == Types.VARBINARY
+                        || type == Types.LONGVARBINARY);
+            }
+        }
+        boolean[] result = new boolean[binary.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = binary.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * @return lower case names of all tables
+     */
+    private static List<String> tables(Connection conn) throws SQLException {
+        List<String> tables = new ArrayList<>();
+        try (ResultSet r = conn.getMetaData().getTables(null, "PUBLIC", null, new String[]{"TABLE", "BASE TABLE"})) {
+            while (r.next()) {
+                tables.add(r.getString("TABLE_NAME").toLowerCase(Locale.ROOT));
+            }
+        }
+        return tables;
+    }
+
+    private static String resource(String table) {
+        return NorthwindDatabase.CSV + table + SUFFIX;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+import org.h2.api.ErrorCode;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Tracks one query against its {@link QueryBudget} and {@link CancellationToken}
+ * and reports its stages to a {@link QueryListener}.
+ */
+class Execution {
+
+    private final QueryBudget budget;
+    private final CancellationToken token;
+    private final QueryListener listener;
+    private final long started = System.nanoTime();
+    private final long deadline;
+    private QueryListener.Stage stage;
+    private long stageStarted;
+    private String kql;
+    private String sql;
+    private QueryEvent parseEvent;
+    private QueryEvent sqlEvent;
+    private QueryEvent executeEvent;
+    private long rows;
+    private long bytes;
+
+    /**
+     * @param token may be null
+     */
+    Execution(QueryBudget budget, CancellationToken token) {
+        this(budget, token, QueryListener.NONE);
+    }
+
+    /**
+     * @param token may be null
+     */
+    Execution(QueryBudget budget, CancellationToken token, QueryListener listener) {
+        this.budget = budget;
+        this.token = token;
+        this.listener = listener;
+        this.deadline = budget.getTimeoutSeconds() > 0 ? started + budget.getTimeoutSeconds() * 1_000_000_000L : 0;
+    }
+
+    static Execution unlimited() {
+        return new Execution(new QueryBudget(), null);
+    }
+
+    void kql(String kql) {
+        this.kql = kql;
+    }
+
+    void sql(String sql) {
+        this.sql = sql;
+    }
+
+    void begin(QueryListener.Stage stage) {
+        this.stage = stage;
+        this.stageStarted = System.nanoTime();
+        switch (stage) {
+            case PARSE:
+                parseEvent = begin(new KqlParseEvent());
+                break;
+            case SQL:
+                sqlEvent = begin(new SqlGenerationEvent());
+                break;
+            case EXECUTE:
+                executeEvent = begin(new QueryExecuteEvent());
+                break;
+            default:
+                break;
+        }
+    }
+
+    void end() {
+        long nanos = System.nanoTime() - stageStarted;
+        QueryListener.Stage s = stage;
+        stage = null;
+        switch (s) {
+            case BEAN:
+                end(parseEvent);
+                break;
+            case SQL:
+                end(sqlEvent);
+                break;
+            case SERIALIZE:
+                end(executeEvent);
+                break;
+            default:
+                break;
+        }
+        listener.stage(s, nanos);
+    }
+
+    void completed() {
+        commit(false);
+        listener.completed(rows, bytes, System.nanoTime() - started);
+    }
+
+    /**
+     * Classify e by the stage it occurred in and report it.
+     *
+     * @return e as {@link NorthwindException}
+     */
+    NorthwindException failed(Exception e) {
+        NorthwindException failure;
+        if (e instanceof NorthwindException) {
+            failure = (NorthwindException) e;
+        } else {
+            failure = new NorthwindException(kind(e), e);
+        }
+        commit(true);
+        listener.failed(failure.getKind(), failure, System.nanoTime() - started);
+        return failure;
+    }
+
+    /**
+     * @return event if JFR records it, else null
+     */
+    private static QueryEvent begin(QueryEvent event) {
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    private static void end(QueryEvent event) {
+        if (event != null) {
+            event.end();
+        }
+    }
+
+    /**
+     * Events are committed once the call is done, so that all of them carry the SQL hash and row count.
+     */
+    private void commit(boolean failed) {
+        commit(parseEvent, failed);
+        commit(sqlEvent, failed);
+        commit(executeEvent, failed);
+        parseEvent = null;
+        sqlEvent = null;
+        executeEvent = null;
+    }
+
+    private void commit(QueryEvent event, boolean failed) {
+        if (event == null || !event.shouldCommit()) {
+            return;
+        }
+        event.kqlHash = kql == null ? 0 : kql.hashCode();
+        event.sqlHash = sql == null ? 0 : sql.hashCode();
+        event.rows = rows;
+        event.failed = failed;
+        event.commit();
+    }
+
+    private NorthwindException.Kind kind(Exception e) {
+        if (stage == QueryListener.Stage.PARSE) {
+            return NorthwindException.Kind.SYNTAX;
+        } else if (stage == QueryListener.Stage.BEAN || stage == QueryListener.Stage.SQL) {
+            return NorthwindException.Kind.TRANSLATION;
+        } else if (e instanceof SQLException) {
+            return NorthwindException.Kind.DATABASE;
+        } else if (e instanceof IOException || e instanceof UncheckedIOException) {
+            return NorthwindException.Kind.IO;
+        } else if (e instanceof IllegalArgumentException) {
+            return NorthwindException.Kind.INVALID_ARGUMENT;
+        }
+        return NorthwindException.Kind.INTERNAL;
+    }
+
+    void start(Statement s) throws SQLException {
+        if (token != null) {
+            token.register(s);
+        }
+        if (budget.getTimeoutSeconds() > 0) {
+            s.setQueryTimeout(budget.getTimeoutSeconds());
+        }
+        if (budget.getMaxRows() > 0) {
+            // one row more than allowed lets row() detect the overflow, H2 stops producing rows there
+            long limit = Math.min(budget.getMaxRows() + 1, Integer.MAX_VALUE);
+            if (s.getMaxRows() == 0 || limit < s.getMaxRows()) {
+                s.setMaxRows((int) limit);
+            }
+        }
+    }
+
+    /**
+     * @return true if the budget limits rows or bytes, the result should then be produced while it is read
+     * instead of being materialized up front
+     */
+    boolean isBounded() {
+        return budget.getMaxRows() > 0 || budget.getMaxBytes() > 0;
+    }
+
+    void finish(Statement s) {
+        if (token != null) {
+            token.unregister(s);
+        }
+    }
+
+    /**
+     * Account for a row read from the result.
+     *
+     * @param size estimated heap size of the row values
+     */
+    void row(long size) {
+        rows++;
+        bytes += size;
+        checkCancelled();
+        if (budget.getMaxRows() > 0 && rows > budget.getMaxRows()) {
+            throw new QueryAbortedException(QueryAbortedException.Reason.ROW_LIMIT,
+                    "Query returns more than " + budget.getMaxRows() + " rows");
+        }
+        if (budget.getMaxBytes() > 0 && bytes > budget.getMaxBytes()) {
+            throw new QueryAbortedException(QueryAbortedException.Reason.MEMORY_LIMIT,
+                    "Query result exceeds " + budget.getMaxBytes() + " bytes");
+        }
+        if (deadline != 0 && (rows & 0xff) == 0 && System.nanoTime() - deadline > 0) {
+            throw new QueryAbortedException(QueryAbortedException.Reason.TIMEOUT,
+                    "Query exceeds " + budget.getTimeoutSeconds() + " seconds");
+        }
+    }
+
+    /**
+     * @throws QueryAbortedException if the token was cancelled
+     */
+    void checkCancelled() {
+        if (token != null && token.isCancelled()) {
+            throw new QueryAbortedException(QueryAbortedException.Reason.CANCELLED, "Query cancelled");
+        }
+    }
+
+    long getRows() {
+        return rows;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return e translated to a {@link QueryAbortedException} if the statement was cancelled or timed out, else null
+     */
+    QueryAbortedException aborted(SQLException e) {
+        if (e.getErrorCode() != ErrorCode.STATEMENT_WAS_CANCELED) {
+            return null;
+        }
+        if (token != null && token.isCancelled()) {
+            return new QueryAbortedException(QueryAbortedException.Reason.CANCELLED, "Query cancelled", e);
+        }
+        return new QueryAbortedException(QueryAbortedException.Reason.TIMEOUT,
+                "Query exceeds " + budget.getTimeoutSeconds() + " seconds", e);
+    }
+}
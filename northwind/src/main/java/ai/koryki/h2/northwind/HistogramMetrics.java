@@ -0,0 +1,200 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link QueryListener} keeping in-memory histograms of stage and call latencies, result rows and bytes,
+ * and a count of failures per {@link NorthwindException.Kind}.
+ * <p>
+ * Histograms use logarithmic buckets with eight sub-buckets per power of two,
+ * percentiles are accurate to about 12.5 percent, maximum and count are exact.
+ */
+public class HistogramMetrics implements QueryListener {
+
+    private final Map<Stage, Histogram> stages = new EnumMap<>(Stage.class);
+    private final Histogram latency = new Histogram();
+    private final Histogram rows = new Histogram();
+    private final Histogram bytes = new Histogram();
+    private final Map<NorthwindException.Kind, LongAdder> failures = new EnumMap<>(NorthwindException.Kind.class);
+
+    public HistogramMetrics() {
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new Histogram());
+        }
+        for (NorthwindException.Kind kind : NorthwindException.Kind.values()) {
+            failures.put(kind, new LongAdder());
+        }
+    }
+
+    @Override
+    public void stage(Stage stage, long nanos) {
+        stages.get(stage).record(nanos);
+    }
+
+    @Override
+    public void completed(long rows, long bytes, long nanos) {
+        latency.record(nanos);
+        this.rows.record(rows);
+        this.bytes.record(bytes);
+    }
+
+    @Override
+    public void failed(NorthwindException.Kind kind, NorthwindException e, long nanos) {
+        failures.get(kind).increment();
+    }
+
+    /**
+     * @return stage durations in nanoseconds
+     */
+    public Histogram getStage(Stage stage) {
+        return stages.get(stage);
+    }
+
+    /**
+     * @return durations of completed calls in nanoseconds
+     */
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    public Histogram getRows() {
+        return rows;
+    }
+
+    /**
+     * @return estimated result sizes in bytes
+     */
+    public Histogram getBytes() {
+        return bytes;
+    }
+
+    public long getFailures(NorthwindException.Kind kind) {
+        return failures.get(kind).sum();
+    }
+
+    /**
+     * @return one line per histogram with count, p50, p99 and max, durations in microseconds
+     */
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            append(b, stage.name(), stages.get(stage), TimeUnit.MICROSECONDS.toNanos(1));
+        }
+        append(b, "TOTAL", latency, TimeUnit.MICROSECONDS.toNanos(1));
+        append(b, "ROWS", rows, 1);
+        append(b, "BYTES", bytes, 1);
+        b.append("FAILURES");
+        for (NorthwindException.Kind kind : NorthwindException.Kind.values()) {
+            b.append(' ').append(kind).append('=').append(getFailures(kind));
+        }
+        return b.toString();
+    }
+
+    private static void append(StringBuilder b, String name, Histogram h, long unit) {
+        b.append(name).append(" count=").append(h.getCount())
+                .append(" p50=").append(h.getPercentile(50) / unit)
+                .append(" p99=").append(h.getPercentile(99) / unit)
+                .append(" max=").append(h.getMax() / unit)
+                .append('\n');
+    }
+
+    /**
+     * Lock-free histogram of non-negative values.
+     */
+    public static class Histogram {
+
+        private static final int SUB_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int LINEAR = 2 * SUB_BUCKETS;
+        private static final int BUCKETS = LINEAR + (63 - SUB_BITS - 1) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        public void record(long value) {
+            long v = Math.max(0, value);
+            counts.incrementAndGet(bucket(v));
+            count.increment();
+            sum.add(v);
+            max.accumulate(v);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public double getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return upper bound of the bucket holding the percentile, 0 if nothing was recorded
+         */
+        public long getPercentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+            }
+            long n = count.sum();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return Math.min(upper(i), getMax());
+                }
+            }
+            return getMax();
+        }
+
+        static int bucket(long v) {
+            if (v < LINEAR) {
+                return (int) v;
+            }
+            int magnitude = 63 - Long.numberOfLeadingZeros(v);
+            int sub = (int) (v >>> (magnitude - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return LINEAR + (magnitude - SUB_BITS - 1) * SUB_BUCKETS + sub;
+        }
+
+        static long upper(int bucket) {
+            if (bucket < LINEAR) {
+                return bucket;
+            }
+            int magnitude = (bucket - LINEAR) / SUB_BUCKETS + SUB_BITS + 1;
+            long sub = (bucket - LINEAR) % SUB_BUCKETS;
+            return ((SUB_BUCKETS + sub + 1) << (magnitude - SUB_BITS)) - 1;
+        }
+    }
+}
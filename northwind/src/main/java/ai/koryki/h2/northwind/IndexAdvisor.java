@@ -0,0 +1,267 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+import ai.koryki.antlr.AbstractReader;
+import ai.koryki.antlr.kql.KQLReader;
+import ai.koryki.iql.Bean2Sql;
+import ai.koryki.iql.RelationResolver;
+import ai.koryki.iql.query.Query;
+import ai.koryki.kql.KQL2Bean;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds join and filter columns not covered by an index and creates the missing indexes.
+ * <p>
+ * Join columns are taken from the link definitions read by {@link NorthwindService#readLinks()}:
+ * every {@code table.column} reference in a link that names an existing column counts as join column.
+ * Self-referencing foreign keys like {@code categories.super_category_id} add the hierarchy columns.
+ * Filter columns are the columns the SQL of the {@link #DEMO} queries compares with a constant.
+ * A column is covered if it is the first column of any index of its table.
+ */
+public class IndexAdvisor {
+
+    /**
+     * Demo queries shipped with the northwind database.
+     */
+    public static final List<String> DEMO = List.of("customersmorethan10ordersin2023", "ordertimerange",
+            "unorderedproductsin012023", "employeeranking", "employeeswithorders");
+
+    private static final String DEMO_RESOURCE = "/ai/koryki/databases/northwind/demo/%s.kql";
+
+    private static final Pattern COLUMN = Pattern.compile("([A-Za-z_][A-Za-z0-9_]*)\\.([A-Za-z_][A-Za-z0-9_]*)");
+
+    private static final Pattern TABLE = Pattern.compile(
+            "\\b(?:FROM|JOIN)\\s+([A-Za-z_][A-Za-z0-9_]*)\\b(?!\\s*[.(])(?:\\s+(?:AS\\s+)?([A-Za-z_][A-Za-z0-9_]*))?",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final Set<String> KEYWORDS = Set.of("WHERE", "ON", "JOIN", "LEFT", "RIGHT", "INNER", "OUTER",
+            "FULL", "CROSS", "NATURAL", "GROUP", "ORDER", "HAVING", "LIMIT", "OFFSET", "FETCH", "UNION", "EXCEPT",
+            "INTERSECT", "MINUS", "WINDOW", "QUALIFY");
+
+    private static final String CONSTANT = "(?:(?:DATE|TIME|TIMESTAMP)\\s*'|'|[-+]?\\d|\\?)";
+
+    // a bare column, not part of arithmetic or a function call, compared with a constant
+    private static final Pattern FILTER = Pattern.compile(
+            "(?<![-+*/|%]\\s{0,8})(?<![.\\w])" + COLUMN.pattern()
+                    + "\\s*(?:(?:NOT\\s+)?(?:BETWEEN|I?LIKE|IN\\s*\\()|[=<>!]{1,2}|IS\\b)"
+                    + "\\s*(?:" + CONSTANT + "|NULL\\b|NOT\\s+NULL\\b)",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern REVERSED = Pattern.compile(
+            "(?:'|(?<![.\\w])\\d+)\\s*[=<>!]{1,2}\\s*" + COLUMN.pattern() + "(?!\\s*[-+*/|%(])",
+            Pattern.CASE_INSENSITIVE);
+
+    private final Connection conn;
+
+    public IndexAdvisor(Connection conn) {
+        this.conn = conn;
+    }
+
+    /**
+     * Create indexes on all uncovered join, hierarchy and filter columns.
+     *
+     * @param filterColumns table.column, columns that don't exist are skipped
+     * @return statements executed
+     */
+    public List<String> createMissing(Map<String, List<String>> links, Collection<String> filterColumns)
+            throws SQLException {
+        Set<String> columns = new TreeSet<>(joinColumns(links));
+        columns.addAll(hierarchyColumns());
+        for (String c : filterColumns) {
+            int dot = c.indexOf('.');
+            if (exists(c.substring(0, dot), c.substring(dot + 1))) {
+                columns.add(c);
+            }
+        }
+        return createIndexes(missing(columns));
+    }
+
+    /**
+     * @return columns the {@link #DEMO} queries compare with a constant, see {@link #filterColumns(String)}
+     */
+    public static Set<String> demoFilterColumns(RelationResolver resolver) throws IOException {
+        Set<String> columns = new TreeSet<>();
+        for (String name : DEMO) {
+            String kql;
+            try (InputStream in = IndexAdvisor.class.getResourceAsStream(String.format(DEMO_RESOURCE, name))) {
+                kql = AbstractReader.convert(in);
+            }
+            KQLReader r = new KQLReader(kql, true);
+            Query query = new KQL2Bean(r.getQuery(), r.getDescription()).toBean();
+            columns.addAll(filterColumns(new Bean2Sql(resolver, query).toEnhancedSql()));
+        }
+        return columns;
+    }
+
+    /**
+     * Columns of predicates an index can serve: a bare {@code alias.column} compared with a constant by
+     * comparison operator, BETWEEN, LIKE, IN list or IS NULL. Join conditions, aggregates and columns inside
+     * functions or arithmetic are ignored, aliases are resolved by the FROM and JOIN clauses of sql.
+     *
+     * @return lower case table.column
+     */
+    public static Set<String> filterColumns(String sql) {
+        Map<String, String> tables = new HashMap<>();
+        Matcher t = TABLE.matcher(sql);
+        while (t.find()) {
+            String table = t.group(1);
+            String alias = t.group(2);
+            tables.put(upper(table), table);
+            if (alias != null && !KEYWORDS.contains(upper(alias))) {
+                tables.put(upper(alias), table);
+            }
+        }
+        Set<String> columns = new TreeSet<>();
+        for (Pattern p : List.of(FILTER, REVERSED)) {
+            Matcher m = p.matcher(sql);
+            while (m.find()) {
+                String table = tables.get(upper(m.group(1)));
+                if (table != null) {
+                    columns.add(column(table, m.group(2)));
+                }
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * @return existing columns referenced by links as lower case table.column
+     */
+    public Set<String> joinColumns(Map<String, List<String>> links) throws SQLException {
+        Set<String> columns = new TreeSet<>();
+        for (List<String> link : links.values()) {
+            for (String part : link) {
+                Matcher m = COLUMN.matcher(part);
+                while (m.find()) {
+                    if (exists(m.group(1), m.group(2))) {
+                        columns.add(column(m.group(1), m.group(2)));
+                    }
+                }
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * @return columns of foreign keys referencing their own table
+     */
+    public Set<String> hierarchyColumns() throws SQLException {
+        Set<String> columns = new TreeSet<>();
+        DatabaseMetaData meta = conn.getMetaData();
+        try (ResultSet tables = meta.getTables(null, "PUBLIC", null, new String[]{"TABLE", "BASE TABLE"})) {
+            while (tables.next()) {
+                String table = tables.getString("TABLE_NAME");
+                try (ResultSet keys = meta.getImportedKeys(null, tables.getString("TABLE_SCHEM"), table)) {
+                    while (keys.next()) {
+                        if (table.equals(keys.getString("PKTABLE_NAME"))) {
+                            columns.add(column(table, keys.getString("FKCOLUMN_NAME")));
+                        }
+                    }
+                }
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * @return columns that are not the first column of any index
+     */
+    public List<String> missing(Collection<String> columns) throws SQLException {
+        List<String> missing = new ArrayList<>();
+        for (String c : columns) {
+            int dot = c.indexOf('.');
+            if (!covered(c.substring(0, dot), c.substring(dot + 1))) {
+                missing.add(c);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * @return statements executed
+     */
+    public List<String> createIndexes(Collection<String> columns) throws SQLException {
+        List<String> statements = new ArrayList<>();
+        try (Statement stmt = conn.createStatement()) {
+            for (String c : columns) {
+                int dot = c.indexOf('.');
+                String table = c.substring(0, dot);
+                String column = c.substring(dot + 1);
+                String sql = "CREATE INDEX IF NOT EXISTS ix_" + table + "_" + column + " ON " + table + " (" + column + ")";
+                stmt.execute(sql);
+                statements.add(sql);
+            }
+        }
+        return statements;
+    }
+
+    /**
+     * @return H2 execution plan of sql
+     */
+    public static String explain(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement(); ResultSet r = stmt.executeQuery("EXPLAIN " + sql)) {
+            StringBuilder plan = new StringBuilder();
+            while (r.next()) {
+                plan.append(r.getString(1)).append('\n');
+            }
+            return plan.toString();
+        }
+    }
+
+    private boolean exists(String table, String column) throws SQLException {
+        try (ResultSet r = conn.getMetaData().getColumns(null, null, upper(table), upper(column))) {
+            return r.next();
+        }
+    }
+
+    private boolean covered(String table, String column) throws SQLException {
+        try (ResultSet r = conn.getMetaData().getIndexInfo(null, null, upper(table), false, false)) {
+            while (r.next()) {
+                if (r.getShort("ORDINAL_POSITION") == 1 && upper(column).equals(r.getString("COLUMN_NAME"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String column(String table, String column) {
+        return table.toLowerCase(Locale.ROOT) + "." + column.toLowerCase(Locale.ROOT);
+    }
+
+    private static String upper(String name) {
+        return name.toUpperCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loads the data of a table the first time a query references it, see {@link LoadMode#LAZY}.
+ * <p>
+ * data.sql is read once on the first load and kept partitioned by table until all tables are loaded.
+ * Referenced tables are found by matching the identifiers of the SQL against the table names,
+ * string literals are ignored.
+ */
+class LazyLoader {
+
+    private static final Pattern LITERAL = Pattern.compile("'([^']|'')*'");
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    private static final Pattern ALTER = Pattern.compile("ALTER\\s+TABLE\\s+(\\S+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern REFERENCES = Pattern.compile("REFERENCES\\s+([A-Za-z_][A-Za-z0-9_]*)", Pattern.CASE_INSENSITIVE);
+
+    private final Connection conn;
+    private final Set<String> tables = new HashSet<>();
+    private final Set<String> loaded = ConcurrentHashMap.newKeySet();
+    private final List<Constraint> constraints = new ArrayList<>();
+    private Map<String, List<String>> data;
+
+    /**
+     * @param conn connection tables.sql was applied to, used for all loads
+     */
+    LazyLoader(Connection conn) throws IOException, SQLException {
+        this.conn = conn;
+        try (ResultSet r = conn.getMetaData().getTables(null, "PUBLIC", null, new String[]{"TABLE", "BASE TABLE"})) {
+            while (r.next()) {
+                tables.add(r.getString("TABLE_NAME").toLowerCase(Locale.ROOT));
+            }
+        }
+        try (SqlScriptReader reader = SqlScriptReader.open(NorthwindDatabase.CONSTRAINTS)) {
+            String statement;
+            while ((statement = reader.next()) != null) {
+                constraints.add(new Constraint(statement));
+            }
+        }
+    }
+
+    /**
+     * Load the data of all tables sql references.
+     */
+    void ensureLoaded(String sql) throws IOException, SQLException {
+        Set<String> referenced = referenced(sql);
+        if (loaded.containsAll(referenced)) {
+            return;
+        }
+        synchronized (this) {
+            referenced.removeAll(loaded);
+            if (!referenced.isEmpty()) {
+                load(referenced);
+            }
+        }
+    }
+
+    Set<String> getLoaded() {
+        return Set.copyOf(loaded);
+    }
+
+    /**
+     * @return names of known tables among the identifiers of sql
+     */
+    Set<String> referenced(String sql) {
+        Set<String> referenced = new HashSet<>();
+        Matcher m = IDENTIFIER.matcher(LITERAL.matcher(sql).replaceAll("''"));
+        while (m.find()) {
+            String name = m.group().toLowerCase(Locale.ROOT);
+            if (tables.contains(name)) {
+                referenced.add(name);
+            }
+        }
+        return referenced;
+    }
+
+    private void load(Set<String> load) throws IOException, SQLException {
+        if (data == null) {
+            data = NorthwindDatabase.readDataByTable();
+        }
+
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (BatchLoader loader = new BatchLoader(conn)) {
+            for (String table : load) {
+                List<String> statements = data.get(table);
+                if (statements != null) {
+                    for (String statement : statements) {
+                        loader.add(statement);
+                    }
+                }
+            }
+            loader.flush();
+            conn.commit();
+        } catch (Exception e) {
+            // the data stays partitioned, a later query retries the load
+            try {
+                conn.rollback();
+            } catch (SQLException r) {
+                e.addSuppressed(r);
+            }
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        data.keySet().removeAll(load);
+        loaded.addAll(load);
+
+        try (Statement stmt = conn.createStatement()) {
+            Iterator<Constraint> i = constraints.iterator();
+            while (i.hasNext()) {
+                Constraint c = i.next();
+                if (loaded.containsAll(c.tables)) {
+                    stmt.execute(c.statement);
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    private static class Constraint {
+
+        final String statement;
+        final Set<String> tables = new HashSet<>();
+
+        Constraint(String statement) {
+            this.statement = statement;
+            Matcher alter = ALTER.matcher(statement);
+            if (alter.find()) {
+                tables.add(alter.group(1).toLowerCase(Locale.ROOT));
+            }
+            Matcher references = REFERENCES.matcher(statement);
+            if (references.find()) {
+                tables.add(references.group(1).toLowerCase(Locale.ROOT));
+            }
+        }
+    }
+}
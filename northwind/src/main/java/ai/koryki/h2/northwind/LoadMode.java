@@ -0,0 +1,58 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+/**
+ * How {@link NorthwindDatabase} populates a freshly created database.
+ */
+public enum LoadMode {
+
+    /**
+     * Restore the prebuilt image shipped with the jar, fall back to {@link #BATCH} if it is missing.
+     */
+    IMAGE,
+
+    /**
+     * Execute data.sql as multi-row inserts in JDBC batches within a single transaction,
+     * apply constraints.sql after all data is loaded.
+     */
+    BATCH,
+
+    /**
+     * Execute tables.sql, data.sql and constraints.sql statement by statement.
+     */
+    SCRIPT,
+
+    /**
+     * Insert the per-table CSV resources prebuilt from data.sql with prepared statement batches,
+     * apply constraints.sql afterwards. Falls back to {@link #BATCH} if they are missing.
+     */
+    CSV,
+
+    /**
+     * Execute tables.sql only, the data of a table is loaded the first time
+     * {@link NorthwindDatabase#ensureLoaded(String)} sees a query referencing it.
+     * Constraints are applied once all tables they refer to are loaded.
+     */
+    LAZY,
+
+    /**
+     * Like {@link #BATCH}, but the data of each table is loaded on its own session, all tables at once.
+     * Constraints are applied after all tables are loaded. See {@link NorthwindDatabase#openAsync(String)}.
+     */
+    PARALLEL
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Settings of a {@link NorthwindDatabase}.
+ */
+public class NorthwindConfig {
+
+    private LoadMode loadMode = LoadMode.IMAGE;
+    private int poolSize = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private int maxRows;
+    private int fetchSize;
+    private NorthwindGenerator generator;
+    private boolean createIndexes;
+    private boolean summaryTables;
+    private Storage storage = Storage.MEMORY;
+    private Path directory = Path.of(System.getProperty("java.io.tmpdir"), "northwind");
+    private int cacheSize;
+    private int pageSize;
+    private Duration cursorIdleTimeout = Duration.ofMinutes(5);
+    private String password = "";
+
+    public LoadMode getLoadMode() {
+        return loadMode;
+    }
+
+    public void setLoadMode(LoadMode loadMode) {
+        this.loadMode = loadMode;
+    }
+
+    /**
+     * @return maximum number of pooled sessions used by {@link NorthwindDatabase#run},
+     * and separately by {@link NorthwindDatabase#query} and cursors
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public void setPoolSize(int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be positive: " + poolSize);
+        }
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * @return maximum number of rows a statement returns, 0 for no limit
+     */
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    public void setMaxRows(int maxRows) {
+        if (maxRows < 0) {
+            throw new IllegalArgumentException("maxRows must not be negative: " + maxRows);
+        }
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * @return number of rows fetched at once, 0 for the driver default
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        if (fetchSize < 0) {
+            throw new IllegalArgumentException("fetchSize must not be negative: " + fetchSize);
+        }
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * @return generator replacing the bundled data, null to load the bundled data by {@link #getLoadMode()}
+     */
+    public NorthwindGenerator getGenerator() {
+        return generator;
+    }
+
+    public void setGenerator(NorthwindGenerator generator) {
+        this.generator = generator;
+    }
+
+    /**
+     * @return true to index join, hierarchy and filter columns after loading, see {@link IndexAdvisor}
+     */
+    public boolean isCreateIndexes() {
+        return createIndexes;
+    }
+
+    public void setCreateIndexes(boolean createIndexes) {
+        this.createIndexes = createIndexes;
+    }
+
+    /**
+     * @return true to build summary tables after loading and let queries read them, see {@link SummaryTables},
+     * ignored for {@link LoadMode#LAZY}
+     */
+    public boolean isSummaryTables() {
+        return summaryTables;
+    }
+
+    public void setSummaryTables(boolean summaryTables) {
+        this.summaryTables = summaryTables;
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    public void setStorage(Storage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * @return directory of the database file for {@link Storage#FILE} and {@link Storage#NIO_MAPPED},
+     * the file is named after the database
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return page cache size in KB, 0 for the H2 default
+     */
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public void setCacheSize(int cacheSize) {
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("cacheSize must not be negative: " + cacheSize);
+        }
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * @return page size in bytes used when the database file is created, 0 for the H2 default
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        if (pageSize < 0) {
+            throw new IllegalArgumentException("pageSize must not be negative: " + pageSize);
+        }
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @return time after which an unused {@link ResultCursor} is closed and its session returned to the pool,
+     * {@link Duration#ZERO} to keep cursors open until they are closed
+     */
+    public Duration getCursorIdleTimeout() {
+        return cursorIdleTimeout;
+    }
+
+    public void setCursorIdleTimeout(Duration cursorIdleTimeout) {
+        if (cursorIdleTimeout.isNegative()) {
+            throw new IllegalArgumentException("cursorIdleTimeout must not be negative: " + cursorIdleTimeout);
+        }
+        this.cursorIdleTimeout = cursorIdleTimeout;
+    }
+
+    /**
+     * @return password of the admin user sa, empty by default. A database file keeps the password it was created with.
+     */
+    public String getPassword() {
+        return password;
+    }
+
+    /**
+     * @param password set one before other hosts may connect, see {@link NorthwindServer#setAddress}
+     */
+    public void setPassword(String password) {
+        if (password == null) {
+            throw new IllegalArgumentException("password must not be null, use an empty password instead");
+        }
+        this.password = password;
+    }
+}
@@ -18,13 +18,25 @@ package ai.koryki.h2.northwind;
 
 import ai.koryki.databases.Database;
 import ai.koryki.databases.StatementConsumer;
+import org.h2.jdbcx.JdbcConnectionPool;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.security.SecureRandom;
 import java.sql.*;
-import java.util.stream.Collectors;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 /**
  * This project includes a modified version of the Microsoft Northwind sample database.
@@ -36,22 +48,216 @@ import java.util.stream.Collectors;
 public class NorthwindDatabase implements Database, AutoCloseable {
 
     public static final String TABLES = "/ai/koryki/h2/northwind/tables.sql";
-    public static final String DATA = "/ai/koryki/h2/northwind/data.sql";
+    /**
+     * data.sql as compressed by the build, see {@link SqlScriptReader#open(String)}.
+     */
+    public static final String DATA = "/ai/koryki/h2/northwind/data.sql.gz";
     public static final String CONSTRAINTS = "/ai/koryki/h2/northwind/constraints.sql";
+    public static final String IMAGE = "/ai/koryki/h2/northwind/northwind.h2.sql.gz";
+    public static final String CSV = "/ai/koryki/h2/northwind/csv/";
+    /**
+     * Version of tables.sql, data.sql and constraints.sql, increase it when they change
+     * to reload database files written before.
+     */
+    static final int DATA_VERSION = 1;
+    /**
+     * One row table describing the load of a database file, written after the load committed.
+     */
+    static final String LOADED = "northwind_loaded";
+    /**
+     * User of the sessions {@link #query} and cursors run on, it may only read the tables of schema PUBLIC.
+     */
+    public static final String READER = "NORTHWIND_READER";
+    private static final Pattern USER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
     private String name;
+    private String url;
+    private String readerUrl;
     private Connection conn;
+    private JdbcConnectionPool pool;
+    private JdbcConnectionPool readers;
+    private NorthwindConfig config;
+    private LazyLoader lazy;
+    private boolean reused;
+    private final AtomicLong version = new AtomicLong();
+    /**
+     * Version the summary tables were built at, -1 without summary tables or while they are rebuilt.
+     */
+    private volatile long summaryVersion = -1;
 
     public NorthwindDatabase() throws IOException, SQLException {
         this("northwind");
     }
 
     public NorthwindDatabase(String name) throws IOException, SQLException {
+        this(name, LoadMode.IMAGE);
+    }
+
+    public NorthwindDatabase(String name, LoadMode mode) throws IOException, SQLException {
+        this(name, config(mode));
+    }
+
+    public NorthwindDatabase(String name, NorthwindConfig config) throws IOException, SQLException {
         this.name = name;
-        conn = DriverManager.getConnection("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", "sa", "");
+        this.config = config;
+        this.readerUrl = "jdbc:h2:" + database(name, config);
+        this.url = readerUrl + settings(config);
+        conn = DriverManager.getConnection(url, "sa", config.getPassword());
 
-        runSqlScript(conn, TABLES);
-        runSqlScript(conn, DATA);
-        runSqlScript(conn, CONSTRAINTS);
+        LoadMode mode = config.getLoadMode();
+        boolean persistent = config.getStorage() != Storage.MEMORY;
+        // a lazily loaded file may miss data of some tables, it is reloaded
+        if (persistent && mode != LoadMode.LAZY && isLoaded(conn, config)) {
+            reused = true;
+        } else {
+            if (persistent) {
+                dropAll(conn);
+            }
+            if (config.getGenerator() != null) {
+                config.getGenerator().generate(conn);
+            } else if (mode == LoadMode.IMAGE && NorthwindDatabase.class.getResource(IMAGE) != null) {
+                loadImage(conn);
+            } else if (mode == LoadMode.SCRIPT) {
+                loadScripts(conn);
+            } else if (mode == LoadMode.LAZY) {
+                runSqlScript(conn, TABLES);
+                lazy = new LazyLoader(conn);
+            } else if (mode == LoadMode.CSV) {
+                loadCsv(conn);
+            } else if (mode == LoadMode.PARALLEL) {
+                loadParallel(conn, url, config.getPassword());
+            } else {
+                loadBatched(conn);
+            }
+            if (persistent && mode != LoadMode.LAZY) {
+                markLoaded(conn, config);
+            }
+        }
+        if (config.isCreateIndexes()) {
+            NorthwindModel model = NorthwindModel.get();
+            new IndexAdvisor(conn).createMissing(model.getLinks(), IndexAdvisor.demoFilterColumns(model.getResolver()));
+        }
+        if (config.isSummaryTables() && lazy == null) {
+            SummaryTables.create(conn);
+            summaryVersion = version.get();
+        }
+
+        pool = JdbcConnectionPool.create(url, "sa", config.getPassword());
+        pool.setMaxConnections(config.getPoolSize());
+
+        byte[] random = new byte[16];
+        new SecureRandom().nextBytes(random);
+        String readerPassword = HexFormat.of().formatHex(random);
+        createReader(conn, READER, readerPassword);
+        readers = JdbcConnectionPool.create(readerUrl, READER, readerPassword);
+        readers.setMaxConnections(config.getPoolSize());
+    }
+
+    /**
+     * Create the database in the background, the returned future completes once it is loaded.
+     * Use {@link LoadMode#PARALLEL} to load the tables concurrently.
+     */
+    public static CompletableFuture<NorthwindDatabase> openAsync(String name, NorthwindConfig config) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return new NorthwindDatabase(name, config);
+            } catch (IOException | SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, r -> {
+            Thread t = new Thread(r, "northwind-open-" + name);
+            t.setDaemon(true);
+            t.start();
+        });
+    }
+
+    /**
+     * {@link #openAsync(String, NorthwindConfig)} with {@link LoadMode#PARALLEL}.
+     */
+    public static CompletableFuture<NorthwindDatabase> openAsync(String name) {
+        return openAsync(name, config(LoadMode.PARALLEL));
+    }
+
+    /**
+     * @return H2 database name of the URL, like {@code mem:nw}
+     */
+    private static String database(String name, NorthwindConfig config) {
+        String file = config.getDirectory().toAbsolutePath().resolve(name).toString();
+        switch (config.getStorage()) {
+            case FILE:
+                return "file:" + file;
+            case NIO_MAPPED:
+                return "nioMapped:" + file;
+            default:
+                return "mem:" + name;
+        }
+    }
+
+    /**
+     * H2 applies URL settings as SET commands on every new session, only sa may run them.
+     */
+    private static String settings(NorthwindConfig config) {
+        StringBuilder url = new StringBuilder();
+        if (config.getStorage() == Storage.MEMORY) {
+            url.append(";DB_CLOSE_DELAY=-1");
+        }
+        if (config.getCacheSize() > 0) {
+            url.append(";CACHE_SIZE=").append(config.getCacheSize());
+        }
+        if (config.getPageSize() > 0) {
+            url.append(";PAGE_SIZE=").append(config.getPageSize());
+        }
+        return url.toString();
+    }
+
+    /**
+     * @return true if the file holds a completed load with the load mode, generator and data version of config
+     */
+    private static boolean isLoaded(Connection conn, NorthwindConfig config) throws SQLException {
+        try (ResultSet tables = conn.getMetaData().getTables(null, "PUBLIC", LOADED.toUpperCase(Locale.ROOT), null)) {
+            if (!tables.next()) {
+                return false;
+            }
+        }
+        NorthwindGenerator generator = config.getGenerator();
+        try (Statement stmt = conn.createStatement();
+             ResultSet r = stmt.executeQuery("SELECT load_mode, generator_scale, generator_seed, data_version FROM " + LOADED)) {
+            return r.next()
+                    && config.getLoadMode().name().equals(r.getString(1))
+                    && Objects.equals(generator == null ? null : (long) generator.getScaleFactor(), r.getObject(2, Long.class))
+                    && Objects.equals(generator == null ? null : generator.getSeed(), r.getObject(3, Long.class))
+                    && r.getInt(4) == DATA_VERSION
+                    && !r.next();
+        }
+    }
+
+    private static void markLoaded(Connection conn, NorthwindConfig config) throws SQLException {
+        NorthwindGenerator generator = config.getGenerator();
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE " + LOADED + " (load_mode VARCHAR(16) NOT NULL, generator_scale BIGINT,"
+                    + " generator_seed BIGINT, data_version INTEGER NOT NULL)");
+        }
+        try (PreparedStatement insert = conn.prepareStatement("INSERT INTO " + LOADED + " VALUES (?, ?, ?, ?)")) {
+            insert.setString(1, config.getLoadMode().name());
+            insert.setObject(2, generator == null ? null : (long) generator.getScaleFactor(), Types.BIGINT);
+            insert.setObject(3, generator == null ? null : generator.getSeed(), Types.BIGINT);
+            insert.setInt(4, DATA_VERSION);
+            insert.executeUpdate();
+        }
+    }
+
+    /**
+     * Remove leftovers of an interrupted load from a database file.
+     */
+    private static void dropAll(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP ALL OBJECTS");
+        }
+    }
+
+    private static NorthwindConfig config(LoadMode mode) {
+        NorthwindConfig config = new NorthwindConfig();
+        config.setLoadMode(mode);
+        return config;
     }
 
     public DatabaseMetaData getMetadata() throws SQLException {
@@ -59,37 +265,317 @@ public class NorthwindDatabase implements Database, AutoCloseable {
     }
 
 
-    public void run(StatementConsumer c) throws  SQLException {
+    /**
+     * Lease a pooled session, closing the connection returns it to the pool.
+     * Callers wait if all sessions are in use.
+     */
+    public Connection lease() throws SQLException {
+        return pool.getConnection();
+    }
+
+    /**
+     * Lease a pooled session of user {@link #READER}, it can read but not modify the database.
+     */
+    Connection leaseReader() throws SQLException {
+        return readers.getConnection();
+    }
+
+    /**
+     * Create or update a user that may only read the tables of schema PUBLIC, including tables created later.
+     * It cannot modify data, run DDL or use admin functions like FILE_READ, CSVWRITE or SCRIPT.
+     */
+    public void createReader(String user, String password) throws SQLException {
+        createReader(conn, user, password);
+    }
+
+    private static void createReader(Connection conn, String user, String password) throws SQLException {
+        if (!USER.matcher(user).matches()) {
+            throw new IllegalArgumentException("Invalid user name: " + user);
+        }
+        String literal = "'" + password.replace("'", "''") + "'";
         try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE USER IF NOT EXISTS " + user + " PASSWORD " + literal);
+            stmt.execute("ALTER USER " + user + " SET PASSWORD " + literal);
+            stmt.execute("GRANT SELECT ON SCHEMA PUBLIC TO " + user);
+        }
+    }
+
+    /**
+     * Execute statements that may modify the database, each call advances {@link #getVersion()}.
+     */
+    public void run(StatementConsumer c) throws  SQLException {
+        try (Connection con = lease(); Statement stmt = createStatement(con)) {
             c.accept(stmt);
+        } finally {
+            version.incrementAndGet();
         }
     }
 
-    private static void runSqlScript(Connection conn, String resourcePath) throws IOException, SQLException {
-        try (InputStream in = NorthwindDatabase.class.getResourceAsStream(resourcePath)) {
-            if (in == null) {
-                throw new IllegalArgumentException("Could not find " + resourcePath);
+    /**
+     * Like {@link #run(StatementConsumer)}, but as user {@link #READER}, statements that would modify
+     * the database fail. Use for queries, they can run concurrently on all pooled sessions.
+     */
+    public void query(StatementConsumer c) throws  SQLException {
+        try (Connection con = leaseReader()) {
+            con.setReadOnly(true);
+            try (Statement stmt = createStatement(con)) {
+                c.accept(stmt);
+            } finally {
+                con.setReadOnly(false);
             }
-            String sql = new BufferedReader(new InputStreamReader(in))
-                    .lines().filter(l -> !l.trim().startsWith("--"))
-                    .collect(Collectors.joining("\n"));
-
-            // Split on semicolons if multiple statements
-            for (String statement : sql.split(";")) {
-                String trimmed = statement.trim();
-                if (!trimmed.isEmpty()) {
-                    try (Statement stmt = conn.createStatement()) {
-                        stmt.execute(trimmed);
+        }
+    }
+
+    /**
+     * Load the data of all tables sql references, if the database was created with {@link LoadMode#LAZY}.
+     * {@link NorthwindService} calls this before each execution, direct users of {@link #run} and
+     * {@link #query} call it themselves.
+     */
+    public void ensureLoaded(String sql) throws IOException, SQLException {
+        if (lazy != null) {
+            lazy.ensureLoaded(sql);
+        }
+    }
+
+    /**
+     * Let sql read the summary tables if it qualifies and they are up to date, see {@link SummaryTables}.
+     * Summary tables become stale with the next {@link #run(StatementConsumer)}, until {@link #refreshSummaries()}.
+     * {@link NorthwindService} calls this before each execution.
+     *
+     * @return sql to execute instead of sql
+     */
+    public String rewrite(String sql) {
+        if (summaryVersion < 0 || summaryVersion != version.get()) {
+            return sql;
+        }
+        String rewritten = SummaryTables.rewrite(sql);
+        return rewritten == null ? sql : rewritten;
+    }
+
+    /**
+     * Rebuild the summary tables from the current data, if the database was created with summary tables.
+     * Queries run on the base tables while the summary tables are rebuilt.
+     */
+    public synchronized void refreshSummaries() throws SQLException {
+        if (!config.isSummaryTables() || lazy != null) {
+            return;
+        }
+        long current = version.get();
+        summaryVersion = -1;
+        try (Connection con = lease()) {
+            SummaryTables.create(con);
+        }
+        summaryVersion = current;
+    }
+
+    /**
+     * Create a statement limited by {@link NorthwindConfig#getMaxRows()} and {@link NorthwindConfig#getFetchSize()}.
+     */
+    public Statement createStatement(Connection con) throws SQLException {
+        Statement stmt = con.createStatement();
+        stmt.setMaxRows(config.getMaxRows());
+        stmt.setFetchSize(config.getFetchSize());
+        return stmt;
+    }
+
+    /**
+     * @return counter of {@link #run(StatementConsumer)} calls, results read at an older version may be stale
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * @return true if an already loaded database file was opened instead of loading the data
+     */
+    public boolean isReused() {
+        return reused;
+    }
+
+    public NorthwindConfig getConfig() {
+        return config;
+    }
+
+    static void loadScripts(Connection conn) throws IOException, SQLException {
+        runSqlScript(conn, TABLES);
+        runSqlScript(conn, DATA);
+        runSqlScript(conn, CONSTRAINTS);
+    }
+
+    /**
+     * Load data.sql in a single transaction using multi-row inserts and JDBC batches,
+     * constraints are applied after all data is in.
+     */
+    static void loadBatched(Connection conn) throws IOException, SQLException {
+        runSqlScript(conn, TABLES);
+
+        ScriptLoadEvent event = new ScriptLoadEvent();
+        event.begin();
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (SqlScriptReader reader = SqlScriptReader.open(DATA); BatchLoader loader = new BatchLoader(conn)) {
+            String statement;
+            while ((statement = reader.next()) != null) {
+                loader.add(statement);
+            }
+            loader.flush();
+            conn.commit();
+            event.resource = DATA;
+            event.statements = loader.getRows();
+            event.commit();
+        } catch (IOException | SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+
+        runSqlScript(conn, CONSTRAINTS);
+    }
+
+    /**
+     * Load the CSV resources, fall back to {@link #loadBatched(Connection)} if they are missing.
+     */
+    static void loadCsv(Connection conn) throws IOException, SQLException {
+        runSqlScript(conn, TABLES);
+        if (CsvData.load(conn)) {
+            runSqlScript(conn, CONSTRAINTS);
+        } else {
+            dropAll(conn);
+            loadBatched(conn);
+        }
+    }
+
+    /**
+     * Load the data of each table on its own session, all tables at once,
+     * and apply constraints.sql after all of them are loaded.
+     * <p>
+     * Tables are loaded by threads of their own, the load never waits for common pool threads
+     * blocked by callers.
+     * If a table fails, tables not yet started are skipped and all objects are dropped,
+     * so no partially loaded database is left behind.
+     */
+    static void loadParallel(Connection conn, String url, String password) throws IOException, SQLException {
+        runSqlScript(conn, TABLES);
+        Map<String, List<String>> data = readDataByTable();
+        int threads = Math.max(1, Math.min(data.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "northwind-load");
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicBoolean failed = new AtomicBoolean();
+        try {
+            List<CompletableFuture<Void>> loads = new ArrayList<>();
+            for (List<String> statements : data.values()) {
+                loads.add(CompletableFuture.runAsync(() -> {
+                    if (failed.get()) {
+                        return;
+                    }
+                    try (Connection session = DriverManager.getConnection(url, "sa", password)) {
+                        session.setAutoCommit(false);
+                        try (BatchLoader loader = new BatchLoader(session)) {
+                            for (String statement : statements) {
+                                loader.add(statement);
+                            }
+                            loader.flush();
+                        }
+                        session.commit();
+                    } catch (SQLException | RuntimeException e) {
+                        failed.set(true);
+                        throw new CompletionException(e);
                     }
+                }, executor));
+            }
+            CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            try {
+                dropAll(conn);
+            } catch (SQLException d) {
+                e.addSuppressed(d);
+            }
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
+        runSqlScript(conn, CONSTRAINTS);
+    }
+
+    /**
+     * @return statements of data.sql by lower case table name
+     */
+    static Map<String, List<String>> readDataByTable() throws IOException {
+        Map<String, List<String>> partition = new HashMap<>();
+        try (SqlScriptReader reader = SqlScriptReader.open(DATA)) {
+            String statement;
+            while ((statement = reader.next()) != null) {
+                String table = BatchLoader.table(statement);
+                if (table != null) {
+                    partition.computeIfAbsent(table.toLowerCase(Locale.ROOT), t -> new ArrayList<>()).add(statement);
                 }
             }
         }
+        return partition;
+    }
+
+    private static void loadImage(Connection conn) throws SQLException {
+        ScriptLoadEvent event = new ScriptLoadEvent();
+        event.begin();
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("RUNSCRIPT FROM 'classpath:" + IMAGE + "' COMPRESSION GZIP");
+        }
+        event.resource = IMAGE;
+        event.statements = -1;
+        event.commit();
+    }
+
+    static void runSqlScript(Connection conn, String resourcePath) throws IOException, SQLException {
+        ScriptLoadEvent event = new ScriptLoadEvent();
+        event.begin();
+        long statements = 0;
+        try (SqlScriptReader reader = SqlScriptReader.open(resourcePath)) {
+            String statement;
+            while ((statement = reader.next()) != null) {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute(statement);
+                }
+                statements++;
+            }
+        }
+        event.resource = resourcePath;
+        event.statements = statements;
+        event.commit();
     }
 
 
+    /**
+     * Release all sessions and close the database. An in-memory database is dropped,
+     * a database of the same name can be created afterwards.
+     */
     @Override
     public void close() throws SQLException {
-        conn.close();
+        readers.dispose();
+        pool.dispose();
+        try (Connection c = conn; Statement stmt = c.createStatement()) {
+            stmt.execute("SHUTDOWN");
+        }
+    }
+
+    /**
+     * @return JDBC URL of the database for sa, without user and password
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return JDBC URL of the open database for users other than sa, it carries no settings
+     */
+    public String getReaderUrl() {
+        return readerUrl;
     }
 
     public String getName() {
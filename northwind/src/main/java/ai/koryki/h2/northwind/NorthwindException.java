@@ -0,0 +1,55 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+/**
+ * Failure of a {@link NorthwindService} call, classified by {@link Kind}.
+ */
+public class NorthwindException extends RuntimeException {
+
+    public enum Kind {
+        /** the KQL query could not be parsed */
+        SYNTAX,
+        /** the KQL query could not be translated to SQL, e.g. an unknown entity or relation */
+        TRANSLATION,
+        /** H2 rejected or failed to execute the SQL */
+        DATABASE,
+        /** the query was stopped, see {@link QueryAbortedException} */
+        ABORTED,
+        /** an argument like a page size or continuation token was invalid */
+        INVALID_ARGUMENT,
+        /** writing the result failed */
+        IO,
+        INTERNAL
+    }
+
+    private final Kind kind;
+
+    public NorthwindException(Kind kind, Throwable cause) {
+        super(cause);
+        this.kind = kind;
+    }
+
+    public NorthwindException(Kind kind, String message, Throwable cause) {
+        super(message, cause);
+        this.kind = kind;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+}
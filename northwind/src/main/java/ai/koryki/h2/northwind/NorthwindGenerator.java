@@ -0,0 +1,284 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generates a Northwind database of a chosen scale factor.
+ * <p>
+ * Reference tables (employees, products, shippers, ...) are taken from data.sql as they are.
+ * Customers, orders and order details are generated: a scale factor of n yields n times the 91 customers,
+ * 830 orders and about 2,200 order details of the bundled data. Customers are copies of the bundled ones,
+ * orders are spread evenly over the bundled order period and reference only existing customers, employees,
+ * shippers and products, so all constraints of constraints.sql hold. The same scale factor and seed
+ * always produce the same data.
+ * <p>
+ * Rows are streamed into the database with prepared statement batches, nothing is written to disk.
+ * If the order ids exceed the smallint range of tables.sql, order_id is widened to integer.
+ */
+public class NorthwindGenerator {
+
+    public static final long DEFAULT_SEED = 20250101L;
+    public static final int CUSTOMERS = 91;
+    public static final int ORDERS = 830;
+
+    private static final Set<String> GENERATED = Set.of("orders", "order_details");
+    private static final int FIRST_ORDER_ID = 10248;
+    private static final LocalDate FIRST_ORDER_DATE = LocalDate.of(2022, 7, 4);
+    private static final int ORDER_DAYS = 672;
+    private static final float[] DISCOUNTS = {0.05f, 0.1f, 0.15f, 0.2f, 0.25f};
+    private static final int BATCH_SIZE = 1000;
+
+    private final int scaleFactor;
+    private final long seed;
+
+    public NorthwindGenerator(int scaleFactor) {
+        this(scaleFactor, DEFAULT_SEED);
+    }
+
+    public NorthwindGenerator(int scaleFactor, long seed) {
+        if (scaleFactor < 1) {
+            throw new IllegalArgumentException("scaleFactor must be positive: " + scaleFactor);
+        }
+        this.scaleFactor = scaleFactor;
+        this.seed = seed;
+    }
+
+    public int getScaleFactor() {
+        return scaleFactor;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Create tables, load reference data, generate customers, orders and order details, apply constraints.
+     */
+    public void generate(Connection conn) throws IOException, SQLException {
+        NorthwindDatabase.runSqlScript(conn, NorthwindDatabase.TABLES);
+        int orders = ORDERS * scaleFactor;
+        if (FIRST_ORDER_ID + orders > Short.MAX_VALUE) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("ALTER TABLE orders ALTER COLUMN order_id SET DATA TYPE INTEGER");
+                stmt.execute("ALTER TABLE order_details ALTER COLUMN order_id SET DATA TYPE INTEGER");
+            }
+        }
+
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            loadReferenceData(conn);
+            List<String[]> customers = generateCustomers(conn);
+            generateOrders(conn, customers, orders);
+            conn.commit();
+        } catch (IOException | SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+
+        NorthwindDatabase.runSqlScript(conn, NorthwindDatabase.CONSTRAINTS);
+    }
+
+    /**
+     * Load data.sql without orders and order details, customers serve as template for the generated ones.
+     */
+    private static void loadReferenceData(Connection conn) throws IOException, SQLException {
+        ScriptLoadEvent event = new ScriptLoadEvent();
+        event.begin();
+        try (SqlScriptReader reader = SqlScriptReader.open(NorthwindDatabase.DATA); BatchLoader loader = new BatchLoader(conn)) {
+            String statement;
+            while ((statement = reader.next()) != null) {
+                String table = BatchLoader.table(statement);
+                if (table == null || !GENERATED.contains(table.toLowerCase(Locale.ROOT))) {
+                    loader.add(statement);
+                }
+            }
+            loader.flush();
+            event.resource = NorthwindDatabase.DATA;
+            event.statements = loader.getRows();
+            event.commit();
+        }
+    }
+
+    /**
+     * Add scaleFactor - 1 copies of the bundled customers.
+     *
+     * @return all customers, columns as in tables.sql
+     */
+    private List<String[]> generateCustomers(Connection conn) throws SQLException {
+        List<String[]> customers = new ArrayList<>(CUSTOMERS * scaleFactor);
+        try (Statement stmt = conn.createStatement();
+             ResultSet r = stmt.executeQuery("SELECT * FROM customers ORDER BY customer_id")) {
+            while (r.next()) {
+                String[] row = new String[11];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = r.getString(i + 1);
+                }
+                customers.add(row);
+            }
+        }
+
+        int bundled = customers.size();
+        try (PreparedStatement insert = conn.prepareStatement("INSERT INTO customers VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            int pending = 0;
+            for (int copy = 1; copy < scaleFactor; copy++) {
+                for (int i = 0; i < bundled; i++) {
+                    String[] row = customers.get(i).clone();
+                    // bundled ids are letters only, generated ids start with a digit
+                    row[0] = id(copy * bundled + i);
+                    row[1] = truncate(row[1] + " " + copy, 40);
+                    for (int c = 0; c < row.length; c++) {
+                        insert.setString(c + 1, row[c]);
+                    }
+                    insert.addBatch();
+                    customers.add(row);
+                    pending = execute(insert, pending);
+                }
+            }
+            flush(insert, pending);
+        }
+        return customers;
+    }
+
+    private void generateOrders(Connection conn, List<String[]> customers, int orders) throws SQLException {
+        int[] employees = ids(conn, "SELECT employee_id FROM employees ORDER BY employee_id");
+        int[] shippers = ids(conn, "SELECT shipper_id FROM shippers ORDER BY shipper_id");
+        int[] products = ids(conn, "SELECT product_id FROM products ORDER BY product_id");
+        float[] prices = new float[products.length];
+        try (PreparedStatement price = conn.prepareStatement("SELECT unit_price FROM products WHERE product_id = ?")) {
+            for (int i = 0; i < products.length; i++) {
+                price.setInt(1, products[i]);
+                try (ResultSet r = price.executeQuery()) {
+                    r.next();
+                    prices[i] = r.getFloat(1);
+                }
+            }
+        }
+
+        Random random = new Random(seed);
+        try (PreparedStatement order = conn.prepareStatement("INSERT INTO orders VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+             PreparedStatement detail = conn.prepareStatement("INSERT INTO order_details VALUES (?, ?, ?, ?, ?)")) {
+            int pendingOrders = 0;
+            int pendingDetails = 0;
+            boolean[] used = new boolean[products.length];
+            for (int i = 0; i < orders; i++) {
+                int orderId = FIRST_ORDER_ID + i;
+                String[] customer = customers.get(random.nextInt(customers.size()));
+                LocalDate orderDate = FIRST_ORDER_DATE.plusDays((long) i * ORDER_DAYS / orders);
+
+                order.setInt(1, orderId);
+                order.setString(2, customer[0]);
+                order.setInt(3, employees[random.nextInt(employees.length)]);
+                order.setObject(4, orderDate);
+                order.setObject(5, orderDate.plusDays(random.nextInt(10) == 0 ? 14 : 28));
+                if (random.nextInt(40) == 0) {
+                    order.setNull(6, Types.DATE);
+                } else {
+                    order.setObject(6, orderDate.plusDays(1 + random.nextInt(35)));
+                }
+                order.setInt(7, shippers[random.nextInt(shippers.length)]);
+                order.setFloat(8, Math.round(-Math.log(1 - random.nextDouble()) * 7800) / 100f);
+                order.setString(9, truncate(customer[1], 40));
+                order.setString(10, customer[4]);
+                order.setString(11, customer[5]);
+                order.setString(12, customer[6]);
+                order.setString(13, customer[7]);
+                order.setString(14, customer[8]);
+                order.addBatch();
+                pendingOrders = execute(order, pendingOrders);
+
+                int lines = 1 + random.nextInt(4) + (random.nextInt(10) == 0 ? 2 : 0);
+                for (int line = 0; line < lines; line++) {
+                    int p;
+                    do {
+                        p = random.nextInt(products.length);
+                    } while (used[p]);
+                    used[p] = true;
+
+                    detail.setInt(1, orderId);
+                    detail.setInt(2, products[p]);
+                    detail.setFloat(3, prices[p]);
+                    detail.setInt(4, 1 + random.nextInt(random.nextInt(4) == 0 ? 120 : 40));
+                    detail.setFloat(5, random.nextInt(10) < 6 ? 0 : DISCOUNTS[random.nextInt(DISCOUNTS.length)]);
+                    detail.addBatch();
+                    pendingDetails = execute(detail, pendingDetails);
+                }
+                Arrays.fill(used, false);
+            }
+            flush(order, pendingOrders);
+            flush(detail, pendingDetails);
+        }
+    }
+
+    /**
+     * @return number of pending rows after executing a full batch
+     */
+    private static int execute(PreparedStatement stmt, int pending) throws SQLException {
+        pending++;
+        return pending == BATCH_SIZE ? flush(stmt, pending) : pending;
+    }
+
+    private static int flush(PreparedStatement stmt, int pending) throws SQLException {
+        if (pending > 0) {
+            stmt.executeBatch();
+        }
+        return 0;
+    }
+
+    private static int[] ids(Connection conn, String sql) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        try (Statement stmt = conn.createStatement(); ResultSet r = stmt.executeQuery(sql)) {
+            while (r.next()) {
+                ids.add(r.getInt(1));
+            }
+        }
+        return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @param n 0 to 36^5 - 1
+     * @return five character base 36 id with leading zeros
+     */
+    static String id(int n) {
+        if (n < 0 || n >= 36 * 36 * 36 * 36 * 36) {
+            throw new IllegalArgumentException("No five character id for " + n);
+        }
+        String id = Integer.toString(n, 36).toUpperCase(Locale.ROOT);
+        return "0".repeat(5 - id.length()) + id;
+    }
+
+    private static String truncate(String s, int length) {
+        return s == null || s.length() <= length ? s : s.substring(0, length);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Build step producing the prebuilt database image {@link NorthwindDatabase#IMAGE}
+ * and the per-table CSV resources below {@link NorthwindDatabase#CSV}.
+ * <p>
+ * The scripts are loaded once into a private in-memory database, which is then dumped
+ * with H2's {@code SCRIPT} command. The dump contains multi-row inserts and applies
+ * constraints after the data, so restoring it with {@code RUNSCRIPT} runs entirely inside
+ * the engine.
+ */
+public class NorthwindImage {
+
+    /**
+     * @param args output directory, the image is written below it using its resource path
+     */
+    public static void main(String[] args) throws IOException, SQLException {
+        if (args.length != 1) {
+            throw new IllegalArgumentException("usage: NorthwindImage <output directory>");
+        }
+        Path target = Path.of(args[0], NorthwindDatabase.IMAGE.substring(1));
+        Files.createDirectories(target.getParent());
+        write(target);
+        writeCsv(Path.of(args[0], NorthwindDatabase.CSV.substring(1)));
+    }
+
+    public static void write(Path target) throws IOException, SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:", "sa", "")) {
+            NorthwindDatabase.loadScripts(conn);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("SCRIPT NOPASSWORDS NOSETTINGS TO '" + target.toAbsolutePath().toString().replace("'", "''")
+                        + "' COMPRESSION GZIP");
+            }
+        }
+    }
+
+    public static void writeCsv(Path directory) throws IOException, SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:", "sa", "")) {
+            NorthwindDatabase.loadScripts(conn);
+            CsvData.write(conn, directory);
+        }
+    }
+}
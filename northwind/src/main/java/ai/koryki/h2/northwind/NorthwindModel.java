@@ -0,0 +1,85 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+import ai.koryki.iql.RelationResolver;
+import ai.koryki.model.schema.Schema;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Schema and links of the northwind database, read once per JVM.
+ * <p>
+ * {@link #get()} returns the shared instance, read on first use. Its {@link RelationResolver} is strict and
+ * shared by all services created with the instance. It is configured once here and only read afterwards.
+ * A single service always shared its resolver across concurrent queries, async calls, batches and HTTP requests,
+ * so sharing it per JVM adds more concurrent readers, but no new kind of access. Do not reconfigure the shared
+ * resolver, {@code setStrict} would change every service; {@link #read()} returns a private instance.
+ */
+public final class NorthwindModel {
+
+    private final Schema schema;
+    private final Map<String, List<String>> links;
+    private final RelationResolver resolver;
+
+    private NorthwindModel(Schema schema, Map<String, List<String>> links) {
+        this.schema = schema;
+        this.links = Collections.unmodifiableMap(links);
+        this.resolver = new RelationResolver(schema, links);
+        this.resolver.setStrict(true);
+    }
+
+    public static NorthwindModel get() {
+        return Holder.MODEL;
+    }
+
+    /**
+     * Read schema and links.
+     */
+    public static NorthwindModel read() throws IOException {
+        return new NorthwindModel(NorthwindService.readDatabaseSchema(), NorthwindService.readLinks());
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    public Map<String, List<String>> getLinks() {
+        return links;
+    }
+
+    public RelationResolver getResolver() {
+        return resolver;
+    }
+
+    private static class Holder {
+
+        static final NorthwindModel MODEL;
+
+        static {
+            try {
+                MODEL = read();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Loads each named {@link NorthwindDatabase} once per JVM and shares it through reference counted handles.
+ * <p>
+ * The first {@link #acquire(String, NorthwindConfig)} of a name creates the database with its config,
+ * later calls share it regardless of their config. Closing the last handle of a name closes the database.
+ */
+public final class NorthwindRegistry {
+
+    private static final Map<String, Entry> DATABASES = new HashMap<>();
+
+    private NorthwindRegistry() {
+    }
+
+    public static Handle acquire(String name) throws IOException, SQLException {
+        return acquire(name, new NorthwindConfig());
+    }
+
+    /**
+     * @param config used only if the database is not loaded yet
+     */
+    public static Handle acquire(String name, NorthwindConfig config) throws IOException, SQLException {
+        Entry entry;
+        synchronized (DATABASES) {
+            entry = DATABASES.computeIfAbsent(name, Entry::new);
+            entry.references++;
+        }
+        try {
+            return new Handle(entry, entry.open(config));
+        } catch (IOException | SQLException | RuntimeException e) {
+            release(entry);
+            throw e;
+        }
+    }
+
+    /**
+     * @return number of open handles of name
+     */
+    public static int references(String name) {
+        synchronized (DATABASES) {
+            Entry entry = DATABASES.get(name);
+            return entry == null ? 0 : entry.references;
+        }
+    }
+
+    private static void release(Entry entry) throws SQLException {
+        synchronized (DATABASES) {
+            if (--entry.references == 0) {
+                DATABASES.remove(entry.name);
+                // close while holding the lock, a new database of the same name waits until this one is gone
+                entry.close();
+            }
+        }
+    }
+
+    private static class Entry {
+
+        final String name;
+        int references;
+        private NorthwindDatabase database;
+
+        Entry(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Load outside the registry lock, so databases of other names stay available meanwhile.
+         */
+        synchronized NorthwindDatabase open(NorthwindConfig config) throws IOException, SQLException {
+            if (database == null) {
+                database = new NorthwindDatabase(name, config);
+            }
+            return database;
+        }
+
+        synchronized void close() throws SQLException {
+            if (database != null) {
+                database.close();
+                database = null;
+            }
+        }
+    }
+
+    /**
+     * A reference to a shared database, close it once the database is no longer used.
+     */
+    public static final class Handle implements AutoCloseable {
+
+        private final Entry entry;
+        private final NorthwindDatabase database;
+        private boolean closed;
+
+        private Handle(Entry entry, NorthwindDatabase database) {
+            this.entry = entry;
+            this.database = database;
+        }
+
+        public NorthwindDatabase getDatabase() {
+            return database;
+        }
+
+        @Override
+        public synchronized void close() throws SQLException {
+            if (!closed) {
+                closed = true;
+                release(entry);
+            }
+        }
+    }
+}
@@ -0,0 +1,441 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.h2.tools.Server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.sql.SQLException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Serves one {@link NorthwindService} to other processes.
+ * <p>
+ * The HTTP endpoint accepts the query as {@code {"query":"..."}} with content type {@code application/json}
+ * and streams the result as JSON:
+ * <ul>
+ *     <li>{@code POST /kql} like {@link NorthwindService#executeKQL(String, OutputStream)}</li>
+ *     <li>{@code POST /sql} like {@link NorthwindService#executeSQL(String, OutputStream)}</li>
+ * </ul>
+ * Queries run as {@link NorthwindDatabase#READER}, which may only read the tables. Requests from another origin
+ * are refused with 403, so web pages cannot send queries to a local server.
+ * <p>
+ * Each request runs on its own virtual thread. At most {@link #getMaxRequests()} requests execute at once,
+ * further requests are answered with 503 instead of waiting, the sessions of the database pool bound them
+ * anyway. Failures before the first result byte are answered as {@code {"kind":...,"message":...}} with a status
+ * by {@link NorthwindException.Kind}, later failures drop the connection, the client cannot mistake the
+ * partial result for a complete one.
+ * <p>
+ * Optionally H2's TCP server is started too, raw SQL clients connect to {@link #getTcpUrl()} as {@link #TCP_USER}
+ * with the {@link #setTcpPassword(String) TCP password}, that user may only read the tables as well.
+ * The TCP server only serves the database of the service, under its name. sa can log in through it too,
+ * so it requires a database {@link NorthwindConfig#setPassword(String) password}. H2's TCP server listens on
+ * a loopback port and has no connection limit, the TCP port forwards to it and accepts at most
+ * {@link #getMaxTcpConnections()} connections, further connections are closed right away.
+ * Local processes reaching H2's port directly bypass the limit, not the passwords.
+ */
+public class NorthwindServer implements AutoCloseable {
+
+    public static final int DEFAULT_PORT = 8080;
+    public static final int DEFAULT_MAX_REQUESTS = 64;
+    public static final int MAX_QUERY_LENGTH = 1 << 20;
+    public static final int DEFAULT_MAX_TCP_CONNECTIONS = 16;
+    public static final String TCP_USER = "NORTHWIND_TCP";
+
+    private final NorthwindService service;
+    private InetAddress address = InetAddress.getLoopbackAddress();
+    private int port = DEFAULT_PORT;
+    private int tcpPort = -1;
+    private String tcpPassword = "";
+    private int maxTcpConnections = DEFAULT_MAX_TCP_CONNECTIONS;
+    private int maxRequests = DEFAULT_MAX_REQUESTS;
+    private Semaphore permits;
+    private ExecutorService executor;
+    private HttpServer http;
+    private Server tcp;
+    private TcpForwarder forwarder;
+
+    public NorthwindServer(NorthwindService service) {
+        this.service = service;
+    }
+
+    /**
+     * Start the HTTP endpoint and, if a TCP port is set, H2's TCP server.
+     *
+     * @throws IllegalStateException if the TCP server is to be started without {@link #setTcpPassword(String)}
+     *                               or while the database has no {@link NorthwindConfig#setPassword(String) password}
+     */
+    public synchronized NorthwindServer start() throws IOException, SQLException {
+        if (http != null) {
+            throw new IllegalStateException("already started");
+        }
+        NorthwindDatabase database = service.getDatabase();
+        if (tcpPort >= 0) {
+            if (tcpPassword.isEmpty()) {
+                throw new IllegalStateException("TCP server requires a TCP password");
+            }
+            if (database.getConfig().getPassword().isEmpty()) {
+                throw new IllegalStateException("TCP server requires a database password, sa could log in without");
+            }
+            database.createReader(TCP_USER, tcpPassword);
+        }
+        permits = new Semaphore(maxRequests);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        HttpServer server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.createContext("/kql", exchange -> handle(exchange, true));
+        server.createContext("/sql", exchange -> handle(exchange, false));
+        server.setExecutor(executor);
+        try {
+            if (tcpPort >= 0) {
+                // -key serves only this database, under its name
+                String served = database.getReaderUrl().substring("jdbc:h2:".length());
+                tcp = Server.createTcpServer("-tcpPort", "0", "-ifExists", "-key", database.getName(), served).start();
+                forwarder = new TcpForwarder(address, tcpPort, tcp.getPort(), maxTcpConnections);
+            }
+        } catch (SQLException | IOException e) {
+            if (tcp != null) {
+                tcp.stop();
+                tcp = null;
+            }
+            server.stop(0);
+            executor.shutdown();
+            throw e;
+        }
+        server.start();
+        http = server;
+        return this;
+    }
+
+    /**
+     * Stop both servers, running requests get one second to complete. The service stays open.
+     */
+    @Override
+    public synchronized void close() {
+        if (http != null) {
+            http.stop(1);
+            executor.shutdown();
+            http = null;
+        }
+        if (tcp != null) {
+            forwarder.close();
+            forwarder = null;
+            tcp.stop();
+            tcp = null;
+        }
+    }
+
+    /**
+     * @return bound HTTP port, the configured port before {@link #start()}
+     */
+    public int getPort() {
+        return http == null ? port : http.getAddress().getPort();
+    }
+
+    /**
+     * @param port HTTP port, 0 for any free port
+     */
+    public void setPort(int port) {
+        if (port < 0 || port > 0xffff) {
+            throw new IllegalArgumentException("Invalid port: " + port);
+        }
+        this.port = port;
+    }
+
+    public InetAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * @param address of the HTTP endpoint, the loopback address by default.
+     *                Any other address lets the TCP server accept remote connections too.
+     */
+    public void setAddress(InetAddress address) {
+        this.address = address;
+    }
+
+    /**
+     * @return bound TCP port, the configured port before {@link #start()}, -1 if the TCP server is not started
+     */
+    public int getTcpPort() {
+        return forwarder == null ? tcpPort : forwarder.getPort();
+    }
+
+    /**
+     * @param tcpPort TCP port for raw SQL clients, 0 for any free port, -1 to not start H2's TCP server
+     */
+    public void setTcpPort(int tcpPort) {
+        if (tcpPort < -1 || tcpPort > 0xffff) {
+            throw new IllegalArgumentException("Invalid port: " + tcpPort);
+        }
+        this.tcpPort = tcpPort;
+    }
+
+    /**
+     * @param tcpPassword of {@link #TCP_USER}, required to start the TCP server
+     */
+    public void setTcpPassword(String tcpPassword) {
+        if (tcpPassword == null) {
+            throw new IllegalArgumentException("tcpPassword must not be null");
+        }
+        this.tcpPassword = tcpPassword;
+    }
+
+    /**
+     * @return maximum number of TCP connections open at once
+     */
+    public int getMaxTcpConnections() {
+        return maxTcpConnections;
+    }
+
+    public void setMaxTcpConnections(int maxTcpConnections) {
+        if (maxTcpConnections < 1) {
+            throw new IllegalArgumentException("maxTcpConnections must be positive: " + maxTcpConnections);
+        }
+        this.maxTcpConnections = maxTcpConnections;
+    }
+
+    /**
+     * @return JDBC URL of the served database through the TCP server, null if it is not running
+     */
+    public String getTcpUrl() {
+        if (tcp == null) {
+            return null;
+        }
+        String host = address.isAnyLocalAddress() ? "localhost" : address.getHostAddress();
+        if (host.contains(":")) {
+            host = "[" + host + "]";
+        }
+        return "jdbc:h2:tcp://" + host + ":" + forwarder.getPort() + "/" + service.getDatabase().getName();
+    }
+
+    /**
+     * @return maximum number of HTTP requests executing at once
+     */
+    public int getMaxRequests() {
+        return maxRequests;
+    }
+
+    public void setMaxRequests(int maxRequests) {
+        if (maxRequests < 1) {
+            throw new IllegalArgumentException("maxRequests must be positive: " + maxRequests);
+        }
+        this.maxRequests = maxRequests;
+    }
+
+    /**
+     * Serve the shared database {@code nw} until the process ends.
+     * The password of sa is read from {@code NORTHWIND_PASSWORD}, the TCP password from {@code NORTHWIND_TCP_PASSWORD}.
+     *
+     * @param args HTTP port, optional TCP port
+     */
+    public static void main(String[] args) throws IOException, SQLException {
+        if (args.length < 1 || args.length > 2) {
+            throw new IllegalArgumentException("usage: NorthwindServer <http port> [<tcp port>]");
+        }
+        NorthwindConfig config = new NorthwindConfig();
+        if (System.getenv("NORTHWIND_PASSWORD") != null) {
+            config.setPassword(System.getenv("NORTHWIND_PASSWORD"));
+        }
+        NorthwindRegistry.Handle handle = NorthwindRegistry.acquire("nw", config);
+        NorthwindService service = new NorthwindService(handle.getDatabase());
+        NorthwindServer server = new NorthwindServer(service);
+        server.setPort(Integer.parseInt(args[0]));
+        if (args.length > 1) {
+            if (System.getenv("NORTHWIND_TCP_PASSWORD") == null) {
+                throw new IllegalArgumentException("set NORTHWIND_PASSWORD and NORTHWIND_TCP_PASSWORD to start the TCP server");
+            }
+            server.setTcpPort(Integer.parseInt(args[1]));
+            server.setTcpPassword(System.getenv("NORTHWIND_TCP_PASSWORD"));
+        }
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            try {
+                service.close();
+                handle.close();
+            } catch (SQLException e) {
+                // the process ends anyway
+            }
+        }));
+        System.out.println("http://" + server.getAddress().getHostAddress() + ":" + server.getPort());
+        if (server.getTcpUrl() != null) {
+            System.out.println(server.getTcpUrl());
+        }
+    }
+
+    private void handle(HttpExchange exchange, boolean kql) throws IOException {
+        // on an IOException the exchange stays open and the HTTP server drops the connection,
+        // closing it would end a partial result like a complete one
+        respond(exchange, kql);
+        exchange.close();
+    }
+
+    private void respond(HttpExchange exchange, boolean kql) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Allow", "POST");
+            error(exchange, 405, NorthwindException.Kind.INVALID_ARGUMENT, "Method not allowed: " + exchange.getRequestMethod());
+            return;
+        }
+        if (crossOrigin(exchange)) {
+            error(exchange, 403, NorthwindException.Kind.INVALID_ARGUMENT, "Cross origin request");
+            return;
+        }
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType == null || !contentType.split(";")[0].trim().equalsIgnoreCase("application/json")) {
+            error(exchange, 415, NorthwindException.Kind.INVALID_ARGUMENT, "Content-Type must be application/json");
+            return;
+        }
+        if (!permits.tryAcquire()) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            error(exchange, 503, NorthwindException.Kind.ABORTED, "Too many requests, limit: " + maxRequests);
+            return;
+        }
+        try {
+            byte[] body = exchange.getRequestBody().readNBytes(MAX_QUERY_LENGTH + 1);
+            if (body.length > MAX_QUERY_LENGTH) {
+                error(exchange, 413, NorthwindException.Kind.INVALID_ARGUMENT, "Query longer than " + MAX_QUERY_LENGTH + " bytes");
+                return;
+            }
+            String query = query(body);
+            if (query == null) {
+                error(exchange, 400, NorthwindException.Kind.INVALID_ARGUMENT, "Expected {\"query\":\"...\"}");
+                return;
+            }
+            execute(exchange, query, kql);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Browsers send Origin with cross origin POSTs and Sec-Fetch-Site with all requests, other clients send neither.
+     */
+    private static boolean crossOrigin(HttpExchange exchange) {
+        String origin = exchange.getRequestHeaders().getFirst("Origin");
+        if (origin != null && !origin.equals("http://" + exchange.getRequestHeaders().getFirst("Host"))) {
+            return true;
+        }
+        String site = exchange.getRequestHeaders().getFirst("Sec-Fetch-Site");
+        return site != null && !site.equals("same-origin") && !site.equals("none");
+    }
+
+    /**
+     * @return the query of a {@code {"query":"..."}} body, null if the body has no such field
+     */
+    private static String query(byte[] body) {
+        try {
+            JsonNode node = ResultWriter.MAPPER.readTree(body);
+            JsonNode query = node == null ? null : node.get("query");
+            return query != null && query.isTextual() ? query.asText() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void execute(HttpExchange exchange, String query, boolean kql) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        ResponseStream out = new ResponseStream(exchange);
+        try {
+            if (kql) {
+                service.executeKQL(query, out);
+            } else {
+                service.executeSQL(query, out);
+            }
+            out.commit();
+        } catch (NorthwindException e) {
+            if (out.committed) {
+                // status and part of the result are sent already, only dropping the connection tells the client
+                throw new IOException("Response aborted: " + e.getMessage(), e);
+            }
+            error(exchange, status(e.getKind()), e.getKind(), e.getMessage());
+        }
+    }
+
+    static int status(NorthwindException.Kind kind) {
+        switch (kind) {
+            case SYNTAX:
+            case TRANSLATION:
+            case DATABASE:
+            case INVALID_ARGUMENT:
+                return 400;
+            case ABORTED:
+                return 408;
+            default:
+                return 500;
+        }
+    }
+
+    private static void error(HttpExchange exchange, int status, NorthwindException.Kind kind, String message) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, 0);
+        try (OutputStream out = exchange.getResponseBody(); JsonGenerator g = ResultWriter.generator(out)) {
+            g.writeStartObject();
+            g.writeStringField("kind", kind.name());
+            g.writeStringField("message", message);
+            g.writeEndObject();
+        }
+    }
+
+    /**
+     * Sends the 200 status with the first bytes of the result, so errors before can still change it.
+     */
+    private static class ResponseStream extends OutputStream {
+
+        private final HttpExchange exchange;
+        private boolean committed;
+
+        ResponseStream(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        void commit() throws IOException {
+            if (!committed) {
+                committed = true;
+                // chunked, the length is not known until the result is written
+                exchange.sendResponseHeaders(200, 0);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            commit();
+            exchange.getResponseBody().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            commit();
+            exchange.getResponseBody().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (committed) {
+                exchange.getResponseBody().flush();
+            }
+        }
+    }
+}
@@ -17,117 +17,510 @@
 package ai.koryki.h2.northwind;
 
 import ai.koryki.antlr.AbstractReader;
-import ai.koryki.antlr.Bag;
 import ai.koryki.antlr.KQLParser;
 import ai.koryki.antlr.kql.KQLReader;
+import ai.koryki.databases.StatementConsumer;
 import ai.koryki.iql.Bean2Sql;
 import ai.koryki.iql.RelationResolver;
-import ai.koryki.iql.query.Out;
 import ai.koryki.iql.query.Query;
 import ai.koryki.kql.KQL2Bean;
 import ai.koryki.kql.KQLFormatter;
 import ai.koryki.model.JsonUtil;
 import ai.koryki.model.schema.Schema;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.h2.api.ErrorCode;
 
 import java.io.*;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
-public class NorthwindService {
+public class NorthwindService implements AutoCloseable {
 
     public static final String LINKS = "/ai/koryki/databases/northwind/links.json";
     public static final String MODEL = "/ai/koryki/databases/northwind/model.json";
     public static final String SCHEMA = "/ai/koryki/databases/northwind/schema.json";
 
     private NorthwindDatabase database;
+    private NorthwindRegistry.Handle handle;
     private Schema schema;
     private RelationResolver resolver;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Permits permits;
+    private int maxConcurrency;
+    private final QueryCache queryCache = new QueryCache();
+    private volatile QueryBudget budget = new QueryBudget();
+    private volatile ResultCache resultCache;
+    private volatile QueryListener listener = QueryListener.NONE;
 
     public NorthwindService() {
         try {
-            this.schema = readDatabaseSchema();
-            Map<String, List<String>> links = readLinks();
-            this.resolver = new RelationResolver(schema, links);
-            this.resolver.setStrict(true);
-            this.database = new NorthwindDatabase("nw");
+            NorthwindModel model = NorthwindModel.get();
+            this.schema = model.getSchema();
+            this.resolver = model.getResolver();
+            this.handle = NorthwindRegistry.acquire("nw");
+            this.database = handle.getDatabase();
         } catch (IOException | SQLException e) {
             throw new RuntimeException(e);
         }
+        this.maxConcurrency = database.getConfig().getPoolSize();
+        this.permits = new Permits(maxConcurrency);
+    }
+
+    /**
+     * Service on database using the schema and resolver shared by {@link NorthwindModel#get()}.
+     */
+    public NorthwindService(NorthwindDatabase database) {
+        this(database, NorthwindModel.get().getSchema(), NorthwindModel.get().getResolver());
     }
 
     public NorthwindService(NorthwindDatabase database, Schema schema, RelationResolver resolver) {
         this.database = database;
         this.schema = schema;
         this.resolver = resolver;
+        this.maxConcurrency = database.getConfig().getPoolSize();
+        this.permits = new Permits(maxConcurrency);
     }
 
     public String executeSQL(String sql) {
+        return executeSQL(sql, (CancellationToken) null);
+    }
+
+    /**
+     * Execute sql, token may cancel the query from another thread.
+     */
+    public String executeSQL(String sql, CancellationToken token) {
+        Execution execution = execution(token);
         try {
-            Bag<Map<Integer, Map<Integer, String>>> result = new Bag<>(new LinkedHashMap<>());
-            database.run(s -> {
-                try (ResultSet r = s.executeQuery(sql)) {
-
-                    ResultSetMetaData meta = r.getMetaData();
-                    int columnCount = meta.getColumnCount();
-                    int idx = 0;
-                    while (r.next()) {
-
-                        Map<Integer, String> row = new LinkedHashMap<>();
-                        for (int i = 1; i <= columnCount; i++) {
-                            String value = r.getString(i);
-                            row.put(i, value);
-                        }
-                        result.getItem().put(idx, row);
-                    }
+            String key = "sql:" + sql;
+            long version = database.getVersion();
+            String cached = cached(key, version);
+            if (cached == null) {
+                StringWriter out = new StringWriter();
+                try (JsonGenerator g = ResultWriter.generator(out)) {
+                    runToJson(sql, -1, 1, g, execution);
                 }
-            });
-            return printResult(result.getItem());
+                cached = cache(key, version, out.toString());
+            }
+            execution.completed();
+            return cached;
         } catch (Exception e) {
-            throw new RuntimeException(e);
+            throw execution.failed(e);
+        }
+    }
+
+    /**
+     * Execute sql and stream the result as JSON to out, columns are numbered from 1.
+     */
+    public void executeSQL(String sql, Writer out) {
+        Execution execution = execution(null);
+        try {
+            try (JsonGenerator g = ResultWriter.generator(out)) {
+                runToJson(sql, -1, 1, g, execution);
+            }
+            execution.completed();
+        } catch (Exception e) {
+            throw execution.failed(e);
+        }
+    }
+
+    /**
+     * Execute sql and stream the result as UTF-8 encoded JSON to out, columns are numbered from 1.
+     */
+    public void executeSQL(String sql, OutputStream out) {
+        Execution execution = execution(null);
+        try {
+            try (JsonGenerator g = ResultWriter.generator(out)) {
+                runToJson(sql, -1, 1, g, execution);
+            }
+            execution.completed();
+        } catch (Exception e) {
+            throw execution.failed(e);
         }
     }
 
     public String executeKQL(String kqlquery) {
+        return executeKQL(kqlquery, (CancellationToken) null);
+    }
+
+    /**
+     * Execute kqlquery, token may cancel the query from another thread.
+     */
+    public String executeKQL(String kqlquery, CancellationToken token) {
+        Execution execution = execution(token);
         try {
-            Query script = toQuery(kqlquery);
-            String sql = toSql(script);
-            Map<Integer, Map<Integer, String>> result = runWithResult(sql, script);
-            return printResult(result);
+            return executeCompiled(compile(kqlquery, execution), execution);
         } catch (Exception e) {
-            throw new RuntimeException(e);
+            throw execution.failed(e);
+        }
+    }
+
+    /**
+     * Execute kqlqueries as a pipeline: all queries are translated in parallel on the common fork-join pool,
+     * each query is executed on a virtual thread as soon as its translation is done.
+     * Executions take a permit like asynchronous calls, see {@link #setMaxConcurrency(int)}.
+     *
+     * @return result or error of each query, in the order of kqlqueries
+     */
+    public List<BatchResult> executeKQLBatch(List<String> kqlqueries) {
+        return executeKQLBatch(kqlqueries, null);
+    }
+
+    /**
+     * Like {@link #executeKQLBatch(List)}, token cancels all queries of the batch still running or waiting.
+     */
+    public List<BatchResult> executeKQLBatch(List<String> kqlqueries, CancellationToken token) {
+        List<Execution> executions = new ArrayList<>(kqlqueries.size());
+        List<CompletableFuture<String>> futures = new ArrayList<>(kqlqueries.size());
+        for (String kqlquery : kqlqueries) {
+            Execution execution = execution(token);
+            executions.add(execution);
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return compile(kqlquery, execution);
+                } catch (Exception e) {
+                    throw execution.failed(e);
+                }
+            }, ForkJoinPool.commonPool()).thenApplyAsync(compiled -> withPermit(() -> {
+                try {
+                    return executeCompiled(compiled, execution);
+                } catch (Exception e) {
+                    throw execution.failed(e);
+                }
+            }), executor));
+        }
+
+        List<BatchResult> results = new ArrayList<>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(new BatchResult(kqlqueries.get(i), futures.get(i).join(), null));
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                // e.g. RejectedExecutionException after close() or an interrupt while waiting for a permit
+                NorthwindException failure = cause instanceof NorthwindException
+                        ? (NorthwindException) cause : executions.get(i).failed((Exception) cause);
+                results.add(new BatchResult(kqlqueries.get(i), null, failure));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Execute kqlquery and stream the result as JSON to out, columns are numbered from 0.
+     */
+    public void executeKQL(String kqlquery, Writer out) {
+        Execution execution = execution(null);
+        try {
+            CompiledQuery compiled = compile(kqlquery, execution);
+            try (JsonGenerator g = ResultWriter.generator(out)) {
+                runToJson(compiled.getSql(), compiled.getOut().size(), 0, g, execution);
+            }
+            execution.completed();
+        } catch (Exception e) {
+            throw execution.failed(e);
+        }
+    }
+
+    /**
+     * Execute kqlquery and stream the result as UTF-8 encoded JSON to out, columns are numbered from 0.
+     */
+    public void executeKQL(String kqlquery, OutputStream out) {
+        Execution execution = execution(null);
+        try {
+            CompiledQuery compiled = compile(kqlquery, execution);
+            try (JsonGenerator g = ResultWriter.generator(out)) {
+                runToJson(compiled.getSql(), compiled.getOut().size(), 0, g, execution);
+            }
+            execution.completed();
+        } catch (Exception e) {
+            throw execution.failed(e);
+        }
+    }
+
+    /**
+     * Execute sql into a typed, column oriented result.
+     */
+    public ColumnarResult querySQL(String sql) {
+        return querySQL(sql, null);
+    }
+
+    /**
+     * Execute sql into a typed, column oriented result.
+     * Token may cancel the query from another thread.
+     */
+    public ColumnarResult querySQL(String sql, CancellationToken token) {
+        Execution execution = execution(token);
+        try {
+            ColumnarResult result = runColumnar(sql, -1, execution);
+            execution.completed();
+            return result;
+        } catch (Exception e) {
+            throw execution.failed(e);
+        }
+    }
+
+    /**
+     * Execute kqlquery into a typed, column oriented result.
+     */
+    public ColumnarResult queryKQL(String kqlquery) {
+        return queryKQL(kqlquery, null);
+    }
+
+    /**
+     * Execute kqlquery into a typed, column oriented result.
+     * Token may cancel the query from another thread.
+     */
+    public ColumnarResult queryKQL(String kqlquery, CancellationToken token) {
+        Execution execution = execution(token);
+        try {
+            CompiledQuery compiled = compile(kqlquery, execution);
+            ColumnarResult result = runColumnar(compiled.getSql(), compiled.getOut().size(), execution);
+            execution.completed();
+            return result;
+        } catch (Exception e) {
+            throw execution.failed(e);
+        }
+    }
+
+    /**
+     * Execute sql and return one page of its result.
+     *
+     * @param continuation token of the previous page, null for the first page
+     */
+    public Page executeSQLPage(String sql, int pageSize, String continuation) {
+        return executeSQLPage(sql, pageSize, continuation, null);
+    }
+
+    /**
+     * Execute sql and return one page of its result.
+     * Token may cancel the query from another thread.
+     *
+     * @param continuation token of the previous page, null for the first page
+     */
+    public Page executeSQLPage(String sql, int pageSize, String continuation, CancellationToken token) {
+        Execution execution = execution(token);
+        try {
+            Page page = runPage(sql, -1, pageSize, continuation, execution);
+            execution.completed();
+            return page;
+        } catch (Exception e) {
+            throw execution.failed(e);
+        }
+    }
+
+    /**
+     * Execute kqlquery and return one page of its result.
+     *
+     * @param continuation token of the previous page, null for the first page
+     */
+    public Page executeKQLPage(String kqlquery, int pageSize, String continuation) {
+        return executeKQLPage(kqlquery, pageSize, continuation, null);
+    }
+
+    /**
+     * Execute kqlquery and return one page of its result.
+     * Token may cancel the query from another thread.
+     *
+     * @param continuation token of the previous page, null for the first page
+     */
+    public Page executeKQLPage(String kqlquery, int pageSize, String continuation, CancellationToken token) {
+        Execution execution = execution(token);
+        try {
+            CompiledQuery compiled = compile(kqlquery, execution);
+            Page page = runPage(compiled.getSql(), compiled.getOut().size(), pageSize, continuation, execution);
+            execution.completed();
+            return page;
+        } catch (Exception e) {
+            throw execution.failed(e);
+        }
+    }
+
+    /**
+     * Open a cursor reading the result of sql page by page, the caller must close it.
+     */
+    public ResultCursor openSQLCursor(String sql, int pageSize) {
+        return openSQLCursor(sql, pageSize, null);
+    }
+
+    /**
+     * Open a cursor reading the result of sql page by page, the caller must close it.
+     * Token may cancel the query from another thread. The budget applies to all pages together,
+     * the query is reported to the listener once the cursor is closed.
+     */
+    public ResultCursor openSQLCursor(String sql, int pageSize, CancellationToken token) {
+        Execution execution = execution(token);
+        try {
+            execution.sql(sql);
+            database.ensureLoaded(sql);
+            execution.begin(QueryListener.Stage.EXECUTE);
+            ResultCursor cursor = new ResultCursor(database, database.rewrite(sql), -1, pageSize, execution);
+            execution.end();
+            return cursor;
+        } catch (Exception e) {
+            throw execution.failed(e);
+        }
+    }
+
+    /**
+     * Open a cursor reading the result of kqlquery page by page, the caller must close it.
+     */
+    public ResultCursor openKQLCursor(String kqlquery, int pageSize) {
+        return openKQLCursor(kqlquery, pageSize, null);
+    }
+
+    /**
+     * Open a cursor reading the result of kqlquery page by page, the caller must close it.
+     * Token may cancel the query from another thread. The budget applies to all pages together,
+     * the query is reported to the listener once the cursor is closed.
+     */
+    public ResultCursor openKQLCursor(String kqlquery, int pageSize, CancellationToken token) {
+        Execution execution = execution(token);
+        try {
+            CompiledQuery compiled = compile(kqlquery, execution);
+            database.ensureLoaded(compiled.getSql());
+            execution.begin(QueryListener.Stage.EXECUTE);
+            ResultCursor cursor = new ResultCursor(database, database.rewrite(compiled.getSql()), compiled.getOut().size(), pageSize, execution);
+            execution.end();
+            return cursor;
+        } catch (Exception e) {
+            throw execution.failed(e);
         }
     }
 
     public String validateLQL(String kqlquery) {
 
+        Execution execution = execution(null);
+        execution.kql(kqlquery);
         try {
 
+            execution.begin(QueryListener.Stage.PARSE);
             KQLReader r = new KQLReader(kqlquery, true);
             KQLParser.QueryContext query = r.getQuery();
+            execution.end();
+            execution.begin(QueryListener.Stage.BEAN);
             KQL2Bean l = new KQL2Bean(query, r.getDescription());
             Query script = l.toBean();
+            execution.end();
             // generate sql, do not execute
-            toSql(script);
+            execution.begin(QueryListener.Stage.SQL);
+            execution.sql(toSql(script));
+            execution.end();
 
-            return new KQLFormatter(query, r.getDescription()).format();
+            String formatted = new KQLFormatter(query, r.getDescription()).format();
+            execution.completed();
+            return formatted;
         } catch (Exception e) {
-            throw new RuntimeException(e);
+            throw execution.failed(e);
         }
     }
 
     public String convertToSql(String kqlquery) {
 
+        Execution execution = execution(null);
         try {
-            Query query = toQuery(kqlquery);
-            return toSql(query);
+            String sql = compile(kqlquery, execution).getSql();
+            execution.completed();
+            return sql;
         } catch (Exception e) {
-            throw new RuntimeException(e);
+            throw execution.failed(e);
+        }
+    }
+
+    /**
+     * Asynchronous {@link #executeKQL(String)} on a virtual thread.
+     */
+    public CompletableFuture<String> executeKQLAsync(String kqlquery) {
+        return async(token -> executeKQL(kqlquery, token));
+    }
+
+    /**
+     * Asynchronous {@link #executeSQL(String)} on a virtual thread.
+     */
+    public CompletableFuture<String> executeSQLAsync(String sql) {
+        return async(token -> executeSQL(sql, token));
+    }
+
+    /**
+     * Asynchronous {@link #convertToSql(String)} on a virtual thread.
+     */
+    public CompletableFuture<String> convertToSqlAsync(String kqlquery) {
+        return async(token -> convertToSql(kqlquery));
+    }
+
+    /**
+     * Limit the number of asynchronous calls running at the same time, further calls wait for a permit.
+     * Lowering the limit lets running calls complete, new calls start once fewer than maxConcurrency run.
+     * Defaults to {@link NorthwindConfig#getPoolSize()}, more calls at once would only wait for a session.
+     */
+    public synchronized void setMaxConcurrency(int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be positive: " + maxConcurrency);
+        }
+        int delta = maxConcurrency - this.maxConcurrency;
+        if (delta > 0) {
+            permits.release(delta);
+        } else if (delta < 0) {
+            permits.reducePermits(-delta);
+        }
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    public synchronized int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Cancelling the returned future cancels the running query.
+     */
+    private <T> CompletableFuture<T> async(Function<CancellationToken, T> task) {
+        CancellationToken token = new CancellationToken();
+        CompletableFuture<T> future = CompletableFuture.supplyAsync(() -> withPermit(() -> task.apply(token)), executor);
+        future.whenComplete((r, e) -> {
+            if (future.isCancelled()) {
+                token.cancel();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Run task holding one of the {@link #getMaxConcurrency()} permits, waiting for it if necessary.
+     */
+    private <T> T withPermit(Supplier<T> task) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        }
+        try {
+            return task.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Stop the executor of asynchronous calls and release the shared database if this service acquired it.
+     */
+    @Override
+    public void close() throws SQLException {
+        executor.shutdown();
+        if (handle != null) {
+            handle.close();
         }
     }
 
@@ -143,44 +536,238 @@ public class NorthwindService {
         return AbstractReader.read(LINKS);
     }
 
+    public NorthwindDatabase getDatabase() {
+        return database;
+    }
+
+    /**
+     * @return cache of translated kql queries, used by {@link #executeKQL(String)} and {@link #convertToSql(String)}
+     */
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    public QueryBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Limits applied to each query execution.
+     */
+    public void setBudget(QueryBudget budget) {
+        this.budget = budget;
+    }
+
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Serve repeated queries of {@link #executeSQL(String)} and {@link #executeKQL(String)} from cache,
+     * null disables caching. Streaming variants always execute.
+     */
+    public void setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    public QueryListener getQueryListener() {
+        return listener;
+    }
+
+    /**
+     * Report stage timings, result sizes and failures of all calls to listener, null to stop reporting.
+     */
+    public void setQueryListener(QueryListener listener) {
+        this.listener = listener == null ? QueryListener.NONE : listener;
+    }
+
+    private Execution execution(CancellationToken token) {
+        return new Execution(budget, token, listener);
+    }
+
+    private String cached(String key, long version) {
+        ResultCache cache = resultCache;
+        return cache == null ? null : cache.get(key, version);
+    }
+
+    private String cache(String key, long version, String json) {
+        ResultCache cache = resultCache;
+        if (cache != null) {
+            cache.put(key, version, json);
+        }
+        return json;
+    }
+
+    /**
+     * Execute compiled or serve it from the result cache, columns are numbered from 0.
+     */
+    private String executeCompiled(CompiledQuery compiled, Execution execution) throws SQLException, IOException {
+        String key = "kql:" + compiled.getOut().size() + ":" + compiled.getSql();
+        long version = database.getVersion();
+        String cached = cached(key, version);
+        if (cached == null) {
+            StringWriter out = new StringWriter();
+            try (JsonGenerator g = ResultWriter.generator(out)) {
+                runToJson(compiled.getSql(), compiled.getOut().size(), 0, g, execution);
+            }
+            cached = cache(key, version, out.toString());
+        }
+        execution.completed();
+        return cached;
+    }
+
+    private CompiledQuery compile(String kql, Execution execution) throws IOException {
+        execution.kql(kql);
+        CompiledQuery compiled = queryCache.get(kql);
+        if (compiled == null) {
+            execution.begin(QueryListener.Stage.PARSE);
+            KQLReader r = new KQLReader(kql, true);
+            execution.end();
+            execution.begin(QueryListener.Stage.BEAN);
+            Query query = new KQL2Bean(r.getQuery(), r.getDescription()).toBean();
+            execution.end();
+            execution.begin(QueryListener.Stage.SQL);
+            compiled = new CompiledQuery(query, toSql(query), Bean2Sql.collectOut(query.getSet()));
+            execution.end();
+            queryCache.put(kql, compiled);
+        }
+        execution.sql(compiled.getSql());
+        return compiled;
+    }
+
     private String toSql(Query query) throws IOException {
 
         Bean2Sql k = new Bean2Sql(resolver, query);
         return k.toEnhancedSql();
     }
 
-    private static Query toQuery(String kql) throws IOException {
-        KQLReader r = new KQLReader(kql, true);
-        KQL2Bean l = new KQL2Bean(r.getQuery(), r.getDescription());
-        return l.toBean();
+    /**
+     * @param columns number of columns to write, -1 for all columns of the result
+     */
+    private void runToJson(String sql, int columns, int firstColumn, JsonGenerator g, Execution execution)
+            throws SQLException, IOException {
+        runQuery(sql, execution, false, null, r -> {
+            int count = columns < 0 ? r.getMetaData().getColumnCount() : columns;
+            ResultWriter.write(r, count, firstColumn, g, execution);
+        });
     }
 
-    private String printResult(Map<Integer, Map<Integer, String>> result) throws IOException {
+    /**
+     * @param columns number of columns to read, -1 for all columns of the result
+     */
+    private ColumnarResult runColumnar(String sql, int columns, Execution execution) throws SQLException, IOException {
+        ColumnarResult[] result = new ColumnarResult[1];
+        runQuery(sql, execution, false, null, r -> {
+            int count = columns < 0 ? r.getMetaData().getColumnCount() : columns;
+            result[0] = ColumnarResult.read(r, count, Integer.MAX_VALUE, execution);
+        });
+        return result[0];
+    }
+
+    /**
+     * The statement stops after the requested page and one row to tell whether more rows exist.
+     * It runs with H2's lazy query execution, so skipped rows are produced and dropped one by one instead of
+     * being materialized: memory stays bounded by the page size, time grows with the offset.
+     * Queries that sort without a supporting index still sort all rows. Read whole results with
+     * {@link #openSQLCursor(String, int)} instead of page by page.
+     */
+    private Page runPage(String sql, int columns, int pageSize, String continuation, Execution execution)
+            throws SQLException, IOException {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        long offset = Page.offset(sql, continuation);
+        long limit = offset + pageSize + 1;
+        int maxRows = database.getConfig().getMaxRows();
+        if (limit > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Offset too large: " + offset);
+        } else if (maxRows == 0 || limit < maxRows) {
+            maxRows = (int) limit;
+        }
 
-        ObjectMapper mapper = new ObjectMapper();
-        return mapper.writeValueAsString(result);
+        Page[] page = new Page[1];
+        int max = maxRows;
+        runQuery(sql, execution, true, s -> {
+            s.setMaxRows(max);
+            s.setFetchSize(pageSize + 1);
+        }, r -> {
+            int count = columns < 0 ? r.getMetaData().getColumnCount() : columns;
+            long skipped = 0;
+            while (skipped < offset && r.next()) {
+                skipped++;
+            }
+            ColumnarResult rows = ColumnarResult.read(r, count, pageSize, execution);
+            boolean more = r.next();
+            page[0] = new Page(rows, more, more ? Page.token(sql, offset + rows.getRowCount()) : null);
+        });
+        return page[0];
     }
 
-    private Map<Integer, Map<Integer, String>> runWithResult(String sql, Query query) throws SQLException {
-        List<Out> out = Bean2Sql.collectOut(query.getSet());
+    private interface ResultConsumer {
+        void accept(ResultSet r) throws SQLException, IOException;
+    }
 
-        Map<Integer, Map<Integer, String>> result = new LinkedHashMap<>();
-        database.run(s -> {
-            try (ResultSet r = s.executeQuery(sql)) {
-                int idx = 0;
-                while (r.next()) {
+    /**
+     * Execute sql on a read-only session within the limits of execution.
+     *
+     * @param lazy  run with H2's lazy query execution, rows are produced while c reads them.
+     *              Queries with a row or byte budget always run lazily, so the budget trips before H2 materializes the result.
+     * @param setup configures the statement before execution, may be null
+     */
+    private void runQuery(String sql, Execution execution, boolean lazy, StatementConsumer setup, ResultConsumer c)
+            throws SQLException, IOException {
+        execution.sql(sql);
+        database.ensureLoaded(sql);
+        String executed = database.rewrite(sql);
+        try {
+            execute(executed, execution, lazy, setup, c);
+        } catch (SQLException e) {
+            if (executed.equals(sql) || e.getErrorCode() != ErrorCode.TABLE_OR_VIEW_NOT_FOUND_1) {
+                throw e;
+            }
+            // refreshSummaries() replaced the summary table after the rewrite, nothing was read yet
+            execute(sql, execution, lazy, setup, c);
+        }
+    }
 
-                    Map<Integer, String> row = new LinkedHashMap<>();
-                    for (int i = 0; i < out.size(); i++) {
-                        String cell = r.getString(i + 1);
-                        row.put(i, cell);
+    private void execute(String executed, Execution execution, boolean lazy, StatementConsumer setup, ResultConsumer c)
+            throws SQLException, IOException {
+        boolean lazyExecution = lazy || execution.isBounded();
+        try {
+            database.query(s -> {
+                execution.start(s);
+                if (lazyExecution) {
+                    s.execute("SET LAZY_QUERY_EXECUTION TRUE");
+                }
+                try {
+                    if (setup != null) {
+                        setup.accept(s);
+                    }
+                    execution.begin(QueryListener.Stage.EXECUTE);
+                    try (ResultSet r = s.executeQuery(executed)) {
+                        execution.end();
+                        execution.begin(QueryListener.Stage.SERIALIZE);
+                        c.accept(r);
+                        execution.end();
                     }
-                    result.put(idx, row);
-                    idx++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    if (lazyExecution) {
+                        s.execute("SET LAZY_QUERY_EXECUTION FALSE");
+                    }
+                    execution.finish(s);
                 }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (SQLException e) {
+            QueryAbortedException aborted = execution.aborted(e);
+            if (aborted != null) {
+                throw aborted;
             }
-        });
-        return result;
+            throw e;
+        }
     }
 
     public static HashMap<String, List<String>> readLinks() throws IOException {
@@ -193,4 +780,19 @@ public class NorthwindService {
             return JsonUtil.readDatabaseJson(in);
         }
     }
+
+    /**
+     * Semaphore whose number of permits can be lowered while permits are taken.
+     */
+    private static class Permits extends Semaphore {
+
+        Permits(int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * A bounded slice of a query result.
+ */
+public class Page {
+
+    private final ColumnarResult rows;
+    private final boolean more;
+    private final String continuation;
+
+    Page(ColumnarResult rows, boolean more, String continuation) {
+        this.rows = rows;
+        this.more = more;
+        this.continuation = continuation;
+    }
+
+    public ColumnarResult getRows() {
+        return rows;
+    }
+
+    /**
+     * @return true if rows follow this page
+     */
+    public boolean hasMore() {
+        return more;
+    }
+
+    /**
+     * @return token requesting the next page, null for the last page or pages read by a {@link ResultCursor}
+     */
+    public String getContinuation() {
+        return continuation;
+    }
+
+    public String toJson() {
+        return rows.toJson();
+    }
+
+    /**
+     * Tokens bind the row offset to the SQL they were issued for.
+     */
+    static String token(String sql, long offset) {
+        String token = offset + ":" + Integer.toHexString(sql.hashCode());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @return row offset encoded in continuation, 0 if continuation is null
+     */
+    static long offset(String sql, String continuation) {
+        if (continuation == null) {
+            return 0;
+        }
+        try {
+            String token = new String(Base64.getUrlDecoder().decode(continuation), StandardCharsets.US_ASCII);
+            int colon = token.indexOf(':');
+            if (colon > 0 && token.substring(colon + 1).equals(Integer.toHexString(sql.hashCode()))) {
+                long offset = Long.parseLong(token.substring(0, colon));
+                if (offset >= 0) {
+                    return offset;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // fall through, NumberFormatException is an IllegalArgumentException
+        }
+        throw new IllegalArgumentException("Invalid continuation token: " + continuation);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+/**
+ * A query was stopped before it completed.
+ */
+public class QueryAbortedException extends NorthwindException {
+
+    public enum Reason {
+        TIMEOUT,
+        CANCELLED,
+        ROW_LIMIT,
+        MEMORY_LIMIT
+    }
+
+    private final Reason reason;
+
+    public QueryAbortedException(Reason reason, String message) {
+        super(Kind.ABORTED, message, null);
+        this.reason = reason;
+    }
+
+    public QueryAbortedException(Reason reason, String message, Throwable cause) {
+        super(Kind.ABORTED, message, cause);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+/**
+ * Limits applied to each query executed by {@link NorthwindService}, 0 disables a limit.
+ * A query exceeding a limit is aborted with a {@link QueryAbortedException}.
+ */
+public class QueryBudget {
+
+    private int timeoutSeconds;
+    private long maxRows;
+    private long maxBytes;
+
+    /**
+     * @return seconds a query may run, including reading its result
+     */
+    public int getTimeoutSeconds() {
+        return timeoutSeconds;
+    }
+
+    public void setTimeoutSeconds(int timeoutSeconds) {
+        if (timeoutSeconds < 0) {
+            throw new IllegalArgumentException("timeoutSeconds must not be negative: " + timeoutSeconds);
+        }
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    /**
+     * @return number of rows a query may return. Unlike {@link NorthwindConfig#getMaxRows()},
+     * which truncates results, exceeding it aborts the query.
+     */
+    public long getMaxRows() {
+        return maxRows;
+    }
+
+    public void setMaxRows(long maxRows) {
+        if (maxRows < 0) {
+            throw new IllegalArgumentException("maxRows must not be negative: " + maxRows);
+        }
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * @return estimated heap size in bytes the values of a result may take
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes must not be negative: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of {@link CompiledQuery} keyed by normalized kql text.
+ */
+public class QueryCache {
+
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final LinkedHashMap<String, CompiledQuery> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private int maxSize;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public QueryCache() {
+        this(DEFAULT_SIZE);
+    }
+
+    public QueryCache(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must not be negative: " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return cached query or null
+     */
+    public synchronized CompiledQuery get(String kql) {
+        CompiledQuery compiled = entries.get(normalize(kql));
+        if (compiled == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return compiled;
+    }
+
+    public synchronized void put(String kql, CompiledQuery compiled) {
+        entries.put(normalize(kql), compiled);
+        evict();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param maxSize maximum number of entries, 0 disables the cache
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must not be negative: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        evict();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "QueryCache{size=" + entries.size() + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "}";
+    }
+
+    private void evict() {
+        while (entries.size() > maxSize) {
+            Map.Entry<String, CompiledQuery> eldest = entries.entrySet().iterator().next();
+            entries.remove(eldest.getKey());
+            evictions++;
+        }
+    }
+
+    /**
+     * Collapse whitespace outside of literals, so queries differing only in layout share one entry.
+     */
+    static String normalize(String kql) {
+        StringBuilder b = new StringBuilder(kql.length());
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < kql.length(); i++) {
+            char c = kql.charAt(i);
+            if (quote != 0) {
+                b.append(c);
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (Character.isWhitespace(c)) {
+                space = b.length() > 0;
+            } else {
+                if (space) {
+                    b.append(' ');
+                    space = false;
+                }
+                if (c == '\'' || c == '"') {
+                    quote = c;
+                }
+                b.append(c);
+            }
+        }
+        return b.toString();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * Common fields of the JFR events of a {@link NorthwindService} call. All events of one call carry
+ * the same hashes, so a slow execution can be matched to the KQL it was translated from.
+ */
+@Category({"Koryki", "Northwind"})
+abstract class QueryEvent extends Event {
+
+    @Label("KQL Hash")
+    @Description("String.hashCode of the KQL query, 0 for SQL queries")
+    int kqlHash;
+
+    @Label("SQL Hash")
+    @Description("String.hashCode of the SQL query, 0 if translation failed")
+    int sqlHash;
+
+    @Label("Rows")
+    long rows;
+
+    @Label("Failed")
+    boolean failed;
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+/**
+ * Receives timings and outcome of each {@link NorthwindService} call.
+ * <p>
+ * Methods are called on the thread running the query, possibly by many threads at once,
+ * and should return quickly. Results served from the {@link ResultCache} report no stages.
+ *
+ * @see HistogramMetrics
+ */
+public interface QueryListener {
+
+    QueryListener NONE = new QueryListener() {
+    };
+
+    enum Stage {
+        /** KQLReader, KQL text to parse tree */
+        PARSE,
+        /** KQL2Bean, parse tree to query bean */
+        BEAN,
+        /** Bean2Sql, relation resolution and SQL generation */
+        SQL,
+        /** H2, until the first result row is available */
+        EXECUTE,
+        /** reading the result rows into JSON or a {@link ColumnarResult} */
+        SERIALIZE
+    }
+
+    /**
+     * A stage completed.
+     */
+    default void stage(Stage stage, long nanos) {
+    }
+
+    /**
+     * A call completed.
+     *
+     * @param rows  number of result rows
+     * @param bytes estimated size of the result values
+     * @param nanos duration of the whole call
+     */
+    default void completed(long rows, long bytes, long nanos) {
+    }
+
+    /**
+     * A call failed, the exception is thrown to the caller afterwards.
+     */
+    default void failed(NorthwindException.Kind kind, NorthwindException e, long nanos) {
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of JSON query results keyed by SQL.
+ * <p>
+ * Entries expire after a time to live and are evicted once their estimated size exceeds
+ * the byte limit. Each entry records the {@link NorthwindDatabase#getVersion() version} of the
+ * database it was read from, a write through {@link NorthwindDatabase#run} invalidates all entries.
+ */
+public class ResultCache {
+
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxBytes;
+    private final long ttlNanos;
+    private long version;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxBytes maximum estimated heap size of all entries
+     * @param ttl      time to live of an entry
+     */
+    public ResultCache(long maxBytes, Duration ttl) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    /**
+     * @param version current version of the database
+     * @return cached result or null
+     */
+    public synchronized String get(String key, long version) {
+        invalidate(version);
+        Entry entry = entries.get(key);
+        if (entry != null && System.nanoTime() - entry.expires > 0) {
+            remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.json;
+    }
+
+    /**
+     * @param version version of the database the result was read from
+     */
+    public synchronized void put(String key, long version, String json) {
+        invalidate(version);
+        if (version != this.version) {
+            // result read before a write
+            return;
+        }
+        long size = size(key, json);
+        if (size > maxBytes) {
+            return;
+        }
+        remove(key);
+        entries.put(key, new Entry(json, size, System.nanoTime() + ttlNanos));
+        bytes += size;
+        Iterator<Map.Entry<String, Entry>> i = entries.entrySet().iterator();
+        while (bytes > maxBytes) {
+            Map.Entry<String, Entry> eldest = i.next();
+            bytes -= eldest.getValue().size;
+            i.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return estimated heap size of all entries
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ResultCache{size=" + entries.size() + ", bytes=" + bytes + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + "}";
+    }
+
+    private void invalidate(long version) {
+        if (version > this.version) {
+            this.version = version;
+            clear();
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            bytes -= entry.size;
+        }
+    }
+
+    private static long size(String key, String json) {
+        return ENTRY_OVERHEAD + 2L * (key.length() + json.length());
+    }
+
+    private static class Entry {
+
+        final String json;
+        final long size;
+        final long expires;
+
+        Entry(String json, long size, long expires) {
+            this.json = json;
+            this.size = size;
+            this.expires = expires;
+        }
+    }
+}
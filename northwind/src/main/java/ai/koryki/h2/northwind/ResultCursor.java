@@ -0,0 +1,215 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a query result page by page.
+ * <p>
+ * The cursor holds a pooled session until it is closed. The query runs with
+ * H2's lazy query execution, rows are produced while pages are read instead of being
+ * materialized up front, so memory stays bounded by the page size.
+ * <p>
+ * The {@link QueryBudget} of the service applies to the whole cursor: rows and bytes are counted over all pages,
+ * the timeout runs from opening the cursor. A page exceeding it fails, the cursor is closed then.
+ * The query is reported complete to the {@link QueryListener} once the cursor is closed.
+ * <p>
+ * Callers must close the cursor. A cursor not read for {@link NorthwindConfig#getCursorIdleTimeout()}
+ * is closed anyway, so a forgotten cursor cannot keep its session forever.
+ */
+public class ResultCursor implements AutoCloseable {
+
+    private static final ScheduledExecutorService IDLE_CHECKS = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "northwind-cursor-idle");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Connection con;
+    private final Statement stmt;
+    private final ResultSet result;
+    private final int columns;
+    private final int pageSize;
+    private final Execution execution;
+    private final long idleNanos;
+    private final ScheduledFuture<?> idleCheck;
+    private volatile long used = System.nanoTime();
+    private boolean more;
+    private boolean closed;
+    private boolean expired;
+    private boolean reported;
+
+    /**
+     * @param columns   number of columns to read, -1 for all columns of the result
+     * @param execution budget and token of the query, reported once the cursor is closed
+     */
+    ResultCursor(NorthwindDatabase database, String sql, int columns, int pageSize, Execution execution) throws SQLException {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        this.pageSize = pageSize;
+        this.execution = execution;
+        this.con = database.leaseReader();
+        try {
+            con.setReadOnly(true);
+            try (Statement lazy = con.createStatement()) {
+                lazy.execute("SET LAZY_QUERY_EXECUTION TRUE");
+            }
+            stmt = database.createStatement(con);
+            stmt.setFetchSize(pageSize);
+            execution.start(stmt);
+            result = stmt.executeQuery(sql);
+            this.columns = columns < 0 ? result.getMetaData().getColumnCount() : columns;
+            more = result.next();
+        } catch (SQLException e) {
+            release();
+            QueryAbortedException aborted = execution.aborted(e);
+            if (aborted != null) {
+                throw aborted;
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            release();
+            throw e;
+        }
+        Duration timeout = database.getConfig().getCursorIdleTimeout();
+        idleNanos = timeout.toNanos();
+        if (idleNanos > 0) {
+            long period = Math.max(10, timeout.toMillis() / 4);
+            idleCheck = IDLE_CHECKS.scheduleWithFixedDelay(this::expire, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            idleCheck = null;
+        }
+    }
+
+    private synchronized void expire() {
+        if (!closed && System.nanoTime() - used > idleNanos) {
+            expired = true;
+            try {
+                release();
+            } catch (SQLException e) {
+                // the session is gone either way
+            }
+            report(new SQLException("Cursor closed after idle timeout"));
+        }
+    }
+
+    /**
+     * @return true if {@link #next()} returns further rows
+     */
+    public synchronized boolean hasMore() {
+        return more && !closed;
+    }
+
+    /**
+     * @return next page, empty once the result is exhausted
+     * @throws SQLException          if the cursor is closed, also after the idle timeout
+     * @throws QueryAbortedException if the query was cancelled or exceeds its budget, the cursor is closed then
+     */
+    public synchronized Page next() throws SQLException {
+        if (closed) {
+            throw new SQLException(expired ? "Cursor closed after idle timeout" : "Cursor closed");
+        }
+        used = System.nanoTime();
+        try {
+            execution.checkCancelled();
+            if (!more) {
+                return new Page(ColumnarResult.read(result, columns, 0), false, null);
+            }
+            // the current row was already fetched to find out whether more rows exist
+            ColumnarResult rows = ColumnarResult.readCurrent(result, columns, pageSize, execution);
+            more = result.next();
+            return new Page(rows, more, null);
+        } catch (SQLException e) {
+            QueryAbortedException aborted = execution.aborted(e);
+            fail(aborted != null ? aborted : e);
+            if (aborted != null) {
+                throw aborted;
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            fail(e);
+            throw e;
+        }
+    }
+
+    private void fail(Exception e) {
+        try {
+            release();
+        } catch (SQLException suppressed) {
+            e.addSuppressed(suppressed);
+        }
+        report(e);
+    }
+
+    /**
+     * Report the query to the listener, once.
+     *
+     * @param e failure, null if the cursor was closed by the caller
+     */
+    private void report(Exception e) {
+        if (reported) {
+            return;
+        }
+        reported = true;
+        if (e == null) {
+            execution.completed();
+        } else {
+            execution.failed(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws SQLException {
+        try {
+            release();
+        } catch (SQLException e) {
+            report(e);
+            throw e;
+        }
+        report(null);
+    }
+
+    private void release() throws SQLException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (idleCheck != null) {
+            idleCheck.cancel(false);
+        }
+        try (Connection c = con) {
+            if (stmt != null) {
+                execution.finish(stmt);
+                stmt.close();
+            }
+            try (Statement lazy = c.createStatement()) {
+                lazy.execute("SET LAZY_QUERY_EXECUTION FALSE");
+            }
+            c.setReadOnly(false);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Streams a {@link ResultSet} row by row as JSON object of rows, each row an object of column values:
+ * <pre>{"0":{"0":"a","1":"b"},"1":{"0":"c","1":null}}</pre>
+ */
+public class ResultWriter {
+
+    static final ObjectMapper MAPPER = new ObjectMapper();
+    static final JsonFactory FACTORY = MAPPER.getFactory();
+
+    /**
+     * @return generator leaving out open when closed, a result that failed midway is not completed to valid JSON
+     */
+    static JsonGenerator generator(Writer out) throws IOException {
+        return FACTORY.createGenerator(out)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+    }
+
+    /**
+     * @return UTF-8 generator leaving out open when closed, a result that failed midway is not completed to valid JSON
+     */
+    static JsonGenerator generator(OutputStream out) throws IOException {
+        return FACTORY.createGenerator(out, JsonEncoding.UTF8)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+    }
+
+    /**
+     * Write the remaining rows of r to out as UTF-8 JSON, the way {@link NorthwindService#executeKQL(String)} does.
+     *
+     * @param columns number of columns to write, numbered from 0
+     * @return number of rows written
+     */
+    public static int write(ResultSet r, int columns, OutputStream out) throws SQLException, IOException {
+        try (JsonGenerator g = generator(out)) {
+            return write(r, columns, 0, g, Execution.unlimited());
+        }
+    }
+
+    /**
+     * @param columns     number of columns to write
+     * @param firstColumn key of the first column
+     * @param execution   accounts each row against the query budget
+     * @return number of rows written
+     */
+    static int write(ResultSet r, int columns, int firstColumn, JsonGenerator g, Execution execution) throws SQLException, IOException {
+        g.writeStartObject();
+        int idx = 0;
+        while (r.next()) {
+            g.writeFieldId(idx);
+            g.writeStartObject();
+            long size = 0;
+            for (int i = 0; i < columns; i++) {
+                g.writeFieldId(firstColumn + i);
+                String value = r.getString(i + 1);
+                g.writeString(value);
+                size += value == null ? 0 : 2L * value.length();
+            }
+            g.writeEndObject();
+            execution.row(size);
+            idx++;
+        }
+        g.writeEndObject();
+        return idx;
+    }
+}
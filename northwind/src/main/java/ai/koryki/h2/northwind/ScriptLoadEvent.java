@@ -0,0 +1,40 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for loading one SQL resource into a {@link NorthwindDatabase}.
+ */
+@Name("ai.koryki.h2.ScriptLoad")
+@Label("Script Load")
+@Category({"Koryki", "Northwind"})
+@Description("Loading of a SQL script or database image resource")
+class ScriptLoadEvent extends Event {
+
+    @Label("Resource")
+    String resource;
+
+    @Label("Statements")
+    @Description("Number of statements read from the resource, -1 if H2 reads the resource itself")
+    long statements;
+}
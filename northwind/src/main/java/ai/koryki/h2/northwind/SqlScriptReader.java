@@ -0,0 +1,177 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads SQL statements one by one from a script.
+ * <p>
+ * Statements are separated by semicolons outside of string literals and quoted identifiers.
+ * Line comments ({@code --}) and block comments are removed. The script is read incrementally,
+ * memory is bounded by the size of the longest statement.
+ */
+public class SqlScriptReader implements Closeable {
+
+    private final Reader reader;
+    private final StringBuilder buffer = new StringBuilder();
+    private int peek = -2;
+
+    public SqlScriptReader(Reader reader) {
+        this.reader = reader instanceof BufferedReader ? reader : new BufferedReader(reader);
+    }
+
+    /**
+     * Open a script from the classpath.
+     *
+     * @param resourcePath absolute path of the resource, gzip compressed if it ends with {@code .gz}
+     * @return reader, to be closed by the caller
+     */
+    public static SqlScriptReader open(String resourcePath) {
+        InputStream in = SqlScriptReader.class.getResourceAsStream(resourcePath);
+        if (in == null) {
+            throw new IllegalArgumentException("Could not find " + resourcePath);
+        }
+        if (resourcePath.endsWith(".gz")) {
+            try {
+                in = new GZIPInputStream(in, 8192);
+            } catch (IOException e) {
+                close(in);
+                throw new UncheckedIOException(e);
+            }
+        }
+        return new SqlScriptReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    private static void close(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            // reported by the caller
+        }
+    }
+
+    /**
+     * @return next trimmed statement without its terminating semicolon, null at end of script
+     */
+    public String next() throws IOException {
+        buffer.setLength(0);
+        int c;
+        while ((c = read()) >= 0) {
+            switch (c) {
+                case ';':
+                    if (!isBlank()) {
+                        return buffer.toString().trim();
+                    }
+                    buffer.setLength(0);
+                    break;
+                case '\'':
+                case '"':
+                    quoted(c);
+                    break;
+                case '-':
+                    if (peek() == '-') {
+                        lineComment();
+                    } else {
+                        buffer.append((char) c);
+                    }
+                    break;
+                case '/':
+                    if (peek() == '*') {
+                        read();
+                        blockComment();
+                    } else {
+                        buffer.append((char) c);
+                    }
+                    break;
+                default:
+                    buffer.append((char) c);
+            }
+        }
+        return isBlank() ? null : buffer.toString().trim();
+    }
+
+    private void quoted(int quote) throws IOException {
+        buffer.append((char) quote);
+        int c;
+        while ((c = read()) >= 0) {
+            buffer.append((char) c);
+            if (c == quote) {
+                // a doubled quote is an escaped quote inside the literal
+                if (peek() != quote) {
+                    return;
+                }
+                buffer.append((char) read());
+            }
+        }
+        throw new EOFException("Unterminated literal: " + buffer);
+    }
+
+    private void lineComment() throws IOException {
+        int c;
+        while ((c = read()) >= 0) {
+            if (c == '\n') {
+                buffer.append('\n');
+                return;
+            }
+        }
+    }
+
+    private void blockComment() throws IOException {
+        int c;
+        while ((c = read()) >= 0) {
+            if (c == '*' && peek() == '/') {
+                read();
+                buffer.append(' ');
+                return;
+            }
+        }
+        throw new EOFException("Unterminated comment");
+    }
+
+    private boolean isBlank() {
+        for (int i = 0; i < buffer.length(); i++) {
+            if (!Character.isWhitespace(buffer.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int read() throws IOException {
+        if (peek != -2) {
+            int c = peek;
+            peek = -2;
+            return c;
+        }
+        return reader.read();
+    }
+
+    private int peek() throws IOException {
+        if (peek == -2) {
+            peek = reader.read();
+        }
+        return peek;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+/**
+ * Where a {@link NorthwindDatabase} keeps its data.
+ */
+public enum Storage {
+
+    /**
+     * On the Java heap, dropped when the database is closed.
+     */
+    MEMORY,
+
+    /**
+     * MVStore file in {@link NorthwindConfig#getDirectory()}, only the page cache is on heap.
+     */
+    FILE,
+
+    /**
+     * Like {@link #FILE}, but the file is memory mapped by the operating system.
+     */
+    NIO_MAPPED
+}
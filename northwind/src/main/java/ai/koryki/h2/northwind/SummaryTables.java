@@ -0,0 +1,333 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Pre-aggregated order details and the rewrite of queries onto them.
+ * <p>
+ * {@link #create(Connection)} materializes {@value #TABLE}, one row per order with the summed
+ * measures and the number of lines of its details. {@link #rewrite(String)} replaces {@code order_details} by
+ * {@value #TABLE} in queries that only sum these measures or count rows per group of orders. Summing per order
+ * first and then per group gives the same totals as long as no other detail column is read, floating point sums
+ * may differ in their last digits as they are added in another order. {@code COUNT(*)} becomes the sum of the
+ * lines, an order without details joined by an outer join counts as one row as before.
+ * <p>
+ * A query is rewritten only if all of these hold, otherwise it runs unchanged on the base tables:
+ * <ul>
+ *     <li>it is a single SELECT with GROUP BY and without window functions, NATURAL or USING joins</li>
+ *     <li>it reads {@code order_details} once, under an alias</li>
+ *     <li>the alias is used only in {@code SUM} of a measure and to reference {@code order_id}</li>
+ *     <li>its other aggregates are {@code COUNT(*)}, {@code COUNT(DISTINCT ...)}, {@code MIN} and {@code MAX},
+ *     DISTINCT appears nowhere else. The last three do not depend on the number of joined rows.</li>
+ * </ul>
+ */
+public final class SummaryTables {
+
+    public static final String TABLE = "order_totals";
+
+    private static final String BUILDING = TABLE + "_building";
+
+    private static final String DETAILS = "ORDER_DETAILS";
+
+    /**
+     * Column of {@value #TABLE} by the measures it sums, alias of order_details replaced by {@code ?}.
+     */
+    private static final Map<String, String> MEASURES = new TreeMap<>();
+
+    private static final Set<String> DETAIL_COLUMNS = Set.of("ORDER_ID", "PRODUCT_ID", "UNIT_PRICE", "QUANTITY", "DISCOUNT");
+
+    private static final Set<String> REJECTED = Set.of("OVER", "NATURAL", "USING", "AVG", "MEDIAN", "MODE", "STDDEV", "STDDEV_POP", "STDDEV_SAMP", "VARIANCE", "VAR_POP", "VAR_SAMP",
+            "COVAR_POP", "COVAR_SAMP", "CORR", "LISTAGG", "STRING_AGG", "GROUP_CONCAT", "ARRAY_AGG", "JSON_ARRAYAGG",
+            "JSON_OBJECTAGG", "PERCENTILE_CONT", "PERCENTILE_DISC", "HISTOGRAM", "EVERY", "BOOL_AND", "BOOL_OR",
+            "BIT_AND_AGG", "BIT_OR_AGG", "BIT_XOR_AGG", "ANY_VALUE");
+
+    /**
+     * Words that cannot be an alias following a table name.
+     */
+    private static final Set<String> KEYWORDS = Set.of("ON", "WHERE", "JOIN", "INNER", "LEFT", "RIGHT", "FULL",
+            "CROSS", "OUTER", "GROUP", "ORDER", "HAVING", "LIMIT", "OFFSET", "FETCH", "UNION", "INTERSECT", "EXCEPT",
+            "MINUS", "QUALIFY", "WINDOW");
+
+    static {
+        MEASURES.put("?.QUANTITY", "quantity");
+        String price = "?.UNIT_PRICE";
+        String quantity = "?.QUANTITY";
+        String discount = "(1-?.DISCOUNT)";
+        MEASURES.put(price + "*" + quantity, "amount");
+        MEASURES.put(quantity + "*" + price, "amount");
+        for (String[] factors : List.of(new String[]{price, quantity, discount}, new String[]{price, discount, quantity},
+                new String[]{quantity, price, discount}, new String[]{quantity, discount, price},
+                new String[]{discount, price, quantity}, new String[]{discount, quantity, price})) {
+            MEASURES.put(String.join("*", factors), "net_amount");
+        }
+    }
+
+    private SummaryTables() {
+    }
+
+    /**
+     * Create or replace {@value #TABLE} from the current order details. The new table is built under
+     * another name and renamed once complete, so {@value #TABLE} is missing only between dropping the old
+     * table and the rename, never while the aggregation runs. Queries rewritten before that gap fail with
+     * {@link org.h2.api.ErrorCode#TABLE_OR_VIEW_NOT_FOUND_1}, {@link NorthwindService} then runs them on the base tables.
+     */
+    public static void create(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS " + BUILDING);
+            stmt.execute("CREATE TABLE " + BUILDING + " AS SELECT order_id,"
+                    + " CAST(COUNT(*) AS INTEGER) lines,"
+                    + " CAST(SUM(quantity) AS INTEGER) quantity,"
+                    + " SUM(unit_price * quantity) amount,"
+                    + " SUM(unit_price * quantity * (1 - discount)) net_amount"
+                    + " FROM order_details GROUP BY order_id");
+            // the grouped column of CREATE TABLE AS is nullable
+            stmt.execute("ALTER TABLE " + BUILDING + " ALTER COLUMN order_id SET NOT NULL");
+            stmt.execute("ALTER TABLE " + BUILDING + " ADD PRIMARY KEY (order_id)");
+            stmt.execute("DROP TABLE IF EXISTS " + TABLE);
+            stmt.execute("ALTER TABLE " + BUILDING + " RENAME TO " + TABLE);
+        }
+    }
+
+    /**
+     * @return sql reading {@value #TABLE} instead of order_details, null if sql does not qualify
+     */
+    public static String rewrite(String sql) {
+        List<Token> tokens;
+        try {
+            tokens = tokenize(sql);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        int table = -1;
+        int selects = 0;
+        boolean groupBy = false;
+        for (int i = 0; i < tokens.size(); i++) {
+            Token t = tokens.get(i);
+            if (t.word == null) {
+                if (t.quoted && t.text.equalsIgnoreCase('"' + DETAILS + '"')) {
+                    return null;
+                }
+            } else if (REJECTED.contains(t.word)) {
+                return null;
+            } else if ("COUNT".equals(t.word) && !countAll(tokens, i) && !countDistinct(tokens, i)) {
+                return null;
+            } else if ("DISTINCT".equals(t.word) && !countDistinct(tokens, i - 2)) {
+                return null;
+            } else if (DETAILS.equals(t.word)) {
+                if (table >= 0 || i > 0 && tokens.get(i - 1).is(".")) {
+                    return null;
+                }
+                table = i;
+            } else if ("SELECT".equals(t.word)) {
+                selects++;
+            } else if ("GROUP".equals(t.word) && i + 1 < tokens.size() && "BY".equals(tokens.get(i + 1).word)) {
+                groupBy = true;
+            } else if (DETAIL_COLUMNS.contains(t.word) && !"ORDER_ID".equals(t.word) && unqualified(tokens, i)) {
+                return null;
+            }
+        }
+        if (table < 0 || selects != 1 || !groupBy) {
+            return null;
+        }
+
+        int aliasIndex = table + 1;
+        if (aliasIndex < tokens.size() && "AS".equals(tokens.get(aliasIndex).word)) {
+            aliasIndex++;
+        }
+        if (aliasIndex >= tokens.size() || tokens.get(aliasIndex).word == null || KEYWORDS.contains(tokens.get(aliasIndex).word)) {
+            return null;
+        }
+        String alias = tokens.get(aliasIndex).word;
+
+        StringBuilder result = new StringBuilder();
+        int copied = 0;
+        int aggregates = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            Token t = tokens.get(i);
+            if (i == table) {
+                result.append(sql, copied, t.start).append(TABLE);
+                copied = t.end;
+            } else if ("SUM".equals(t.word)) {
+                int close = close(tokens, i + 1);
+                String column = close < 0 ? null : MEASURES.get(pattern(tokens, i + 2, close, alias));
+                if (column == null) {
+                    return null;
+                }
+                result.append(sql, copied, tokens.get(i + 2).start).append(tokens.get(aliasIndex).text).append('.').append(column);
+                copied = tokens.get(close).start;
+                aggregates++;
+                i = close;
+            } else if ("COUNT".equals(t.word) && countAll(tokens, i)) {
+                result.append(sql, copied, t.start).append("SUM(COALESCE(").append(tokens.get(aliasIndex).text).append(".lines, 1))");
+                copied = tokens.get(i + 3).end;
+                aggregates++;
+                i += 3;
+            } else if ("COUNT".equals(t.word)) {
+                aggregates++;
+            } else if (alias.equals(t.word) && i != aliasIndex && !tokens.get(i - 1).is(".")) {
+                if (!orderId(tokens, i)) {
+                    return null;
+                }
+            }
+        }
+        if (aggregates == 0) {
+            return null;
+        }
+        return result.append(sql, copied, sql.length()).toString();
+    }
+
+    /**
+     * @return true if the word at i is a column reference, not qualified by a table and not a label
+     */
+    private static boolean unqualified(List<Token> tokens, int i) {
+        if (i == 0) {
+            return true;
+        }
+        Token previous = tokens.get(i - 1);
+        return !previous.is(".") && !previous.is(")") && !"AS".equals(previous.word);
+    }
+
+    /**
+     * @return true if {@code COUNT(*)} starts at i
+     */
+    private static boolean countAll(List<Token> tokens, int i) {
+        return i + 3 < tokens.size() && "COUNT".equals(tokens.get(i).word) && tokens.get(i + 1).is("(")
+                && tokens.get(i + 2).is("*") && tokens.get(i + 3).is(")");
+    }
+
+    /**
+     * @return true if {@code COUNT(DISTINCT} starts at i
+     */
+    private static boolean countDistinct(List<Token> tokens, int i) {
+        return i >= 0 && i + 2 < tokens.size() && "COUNT".equals(tokens.get(i).word) && tokens.get(i + 1).is("(")
+                && "DISTINCT".equals(tokens.get(i + 2).word);
+    }
+
+    private static boolean orderId(List<Token> tokens, int i) {
+        return i + 2 < tokens.size() && tokens.get(i).word != null && tokens.get(i + 1).is(".")
+                && "ORDER_ID".equals(tokens.get(i + 2).word);
+    }
+
+    /**
+     * @return index of the parenthesis closing the one at open, -1 if there is none
+     */
+    private static int close(List<Token> tokens, int open) {
+        if (open >= tokens.size() || !tokens.get(open).is("(")) {
+            return -1;
+        }
+        int depth = 0;
+        for (int i = open; i < tokens.size(); i++) {
+            if (tokens.get(i).is("(")) {
+                depth++;
+            } else if (tokens.get(i).is(")") && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return tokens from start to end as measure pattern, redundant outer parentheses removed
+     */
+    private static String pattern(List<Token> tokens, int start, int end, String alias) {
+        while (end - start > 2 && tokens.get(start).is("(") && close(tokens, start) == end - 1) {
+            start++;
+            end--;
+        }
+        StringBuilder pattern = new StringBuilder();
+        for (int i = start; i < end; i++) {
+            Token t = tokens.get(i);
+            pattern.append(alias.equals(t.word) ? "?" : t.word != null ? t.word : t.text);
+        }
+        return pattern.toString();
+    }
+
+    static List<Token> tokenize(String sql) {
+        List<Token> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            int start = i;
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            } else if (c == '\'' || c == '"') {
+                i = sql.indexOf(c, i + 1);
+                while (i >= 0 && i + 1 < sql.length() && sql.charAt(i + 1) == c) {
+                    i = sql.indexOf(c, i + 2);
+                }
+                if (i < 0) {
+                    throw new IllegalArgumentException("unterminated quote at " + start);
+                }
+                i++;
+                tokens.add(new Token(sql.substring(start, i), null, c == '"', start, i));
+            } else if (Character.isLetter(c) || c == '_') {
+                while (i < sql.length() && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_')) {
+                    i++;
+                }
+                String text = sql.substring(start, i);
+                tokens.add(new Token(text, text.toUpperCase(Locale.ROOT), false, start, i));
+            } else if (Character.isDigit(c)) {
+                while (i < sql.length() && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                    i++;
+                }
+                tokens.add(new Token(sql.substring(start, i), null, false, start, i));
+            } else if (c == '-' && i + 1 < sql.length() && sql.charAt(i + 1) == '-' || c == '/' && i + 1 < sql.length() && sql.charAt(i + 1) == '*') {
+                throw new IllegalArgumentException("comment at " + start);
+            } else {
+                i++;
+                tokens.add(new Token(sql.substring(start, i), null, false, start, i));
+            }
+        }
+        return tokens;
+    }
+
+    static class Token {
+
+        final String text;
+        /**
+         * Upper case text of unquoted words, null for other tokens.
+         */
+        final String word;
+        final boolean quoted;
+        final int start;
+        final int end;
+
+        Token(String text, String word, boolean quoted, int start, int end) {
+            this.text = text;
+            this.word = word;
+            this.quoted = quoted;
+            this.start = start;
+            this.end = end;
+        }
+
+        boolean is(String symbol) {
+            return word == null && text.equals(symbol);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2025 Johannes Zemlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ai.koryki.h2.northwind;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Forwards connections to a port on the loopback address, at most maxConnections at once.
+ * Further connections are closed right away. H2's TCP server has no such limit, it listens behind the forwarder.
+ */
+class TcpForwarder implements AutoCloseable {
+
+    private final ServerSocket socket;
+    private final int target;
+    private final Semaphore permits;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Set<Socket> open = ConcurrentHashMap.newKeySet();
+
+    TcpForwarder(InetAddress address, int port, int target, int maxConnections) throws IOException {
+        this.socket = new ServerSocket();
+        this.target = target;
+        this.permits = new Semaphore(maxConnections);
+        try {
+            socket.bind(new InetSocketAddress(address, port));
+        } catch (IOException e) {
+            socket.close();
+            executor.shutdown();
+            throw e;
+        }
+        executor.execute(this::accept);
+    }
+
+    int getPort() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * @return number of forwarded connections open now
+     */
+    int getConnections() {
+        return open.size() / 2;
+    }
+
+    private void accept() {
+        while (!socket.isClosed()) {
+            Socket client;
+            try {
+                client = socket.accept();
+            } catch (IOException e) {
+                // closed
+                return;
+            }
+            if (permits.tryAcquire()) {
+                executor.execute(() -> forward(client));
+            } else {
+                close(client);
+            }
+        }
+    }
+
+    private void forward(Socket client) {
+        try (Socket server = new Socket(InetAddress.getLoopbackAddress(), target)) {
+            open.add(client);
+            open.add(server);
+            client.setTcpNoDelay(true);
+            server.setTcpNoDelay(true);
+            executor.execute(() -> copy(client, server));
+            copy(server, client);
+        } catch (IOException e) {
+            // H2's TCP server is stopped
+        } finally {
+            close(client);
+            permits.release();
+        }
+    }
+
+    /**
+     * Copy until either side closes, then close both, the H2 protocol has no half-closed state.
+     */
+    private void copy(Socket from, Socket to) {
+        try {
+            from.getInputStream().transferTo(to.getOutputStream());
+        } catch (IOException e) {
+            // the other side closed
+        } finally {
+            close(from);
+            close(to);
+        }
+    }
+
+    private void close(Socket s) {
+        open.remove(s);
+        try {
+            s.close();
+        } catch (IOException e) {
+            // closed anyway
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // closed anyway
+        }
+        for (Socket s : open) {
+            close(s);
+        }
+        executor.shutdown();
+    }
+}
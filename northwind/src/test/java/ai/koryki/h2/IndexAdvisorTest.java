@@ -0,0 +1,145 @@
+package ai.koryki.h2;
+
+import ai.koryki.h2.northwind.ColumnarResult;
+import ai.koryki.h2.northwind.IndexAdvisor;
+import ai.koryki.h2.northwind.NorthwindConfig;
+import ai.koryki.h2.northwind.NorthwindDatabase;
+import ai.koryki.h2.northwind.NorthwindModel;
+import ai.koryki.h2.northwind.NorthwindService;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IndexAdvisorTest {
+
+    private static final int RUNS = 20;
+
+    private static NorthwindDatabase plain;
+    private static NorthwindDatabase indexed;
+
+    @BeforeAll
+    public static void startup() throws IOException, SQLException {
+        plain = new NorthwindDatabase("index_plain");
+
+        NorthwindConfig config = new NorthwindConfig();
+        config.setCreateIndexes(true);
+        long start = System.currentTimeMillis();
+        indexed = new NorthwindDatabase("index_created", config);
+        System.out.println("loading h2 with indexes: " + (System.currentTimeMillis() - start));
+    }
+
+    @AfterAll
+    public static void shutdown() throws SQLException {
+        plain.close();
+        indexed.close();
+    }
+
+    @Test
+    public void hierarchyColumnsCovered() throws IOException, SQLException {
+
+        try (Connection con = indexed.lease()) {
+            IndexAdvisor advisor = new IndexAdvisor(con);
+            assertTrue(advisor.hierarchyColumns().contains("categories.super_category_id"));
+            assertTrue(advisor.hierarchyColumns().contains("employees.reports_to"));
+
+            Set<String> joins = advisor.joinColumns(NorthwindModel.get().getLinks());
+            assertFalse(joins.isEmpty());
+            assertTrue(joins.contains("orders.customer_id"), joins.toString());
+            assertEquals(List.of(), advisor.missing(joins));
+            assertEquals(List.of(), advisor.missing(advisor.hierarchyColumns()));
+
+            Set<String> filters = IndexAdvisor.demoFilterColumns(NorthwindModel.get().getResolver());
+            assertTrue(filters.contains("orders.order_date"), filters.toString());
+            assertEquals(List.of(), advisor.missing(filters));
+        }
+
+        try (Connection con = plain.lease()) {
+            assertTrue(new IndexAdvisor(con).missing(List.of("orders.order_date")).contains("orders.order_date"));
+        }
+    }
+
+    @Test
+    public void filterColumns() {
+
+        assertEquals(Set.of("orders.order_date"), IndexAdvisor.filterColumns(
+                "SELECT e.last_name, SUM(od.quantity * od.unit_price) sales FROM employees e"
+                        + " JOIN orders o ON o.employee_id = e.employee_id JOIN order_details od ON od.order_id = o.order_id"
+                        + " WHERE o.order_date >= DATE '2023-01-01' GROUP BY e.last_name HAVING SUM(od.quantity) > 100"));
+        assertEquals(Set.of(), IndexAdvisor.filterColumns(
+                "SELECT EXTRACT(YEAR FROM o.order_date) y FROM orders o"
+                        + " WHERE YEAR(o.shipped_date) = 2023 AND o.freight * 2 > 10"));
+        assertEquals(Set.of("orders.order_date", "products.category_id", "products.discontinued",
+                "products.units_in_stock"), IndexAdvisor.filterColumns(
+                "SELECT p.product_name FROM products p WHERE NOT p.product_id IN (SELECT od.product_id"
+                        + " FROM order_details od INNER JOIN orders o ON od.order_id = o.order_id"
+                        + " WHERE o.order_date BETWEEN DATE '2023-01-01' AND DATE '2023-01-31')"
+                        + " AND p.discontinued IS NOT NULL AND 20 > p.units_in_stock AND p.category_id IN (1, 2)"));
+        assertEquals(Set.of("customers.country"),
+                IndexAdvisor.filterColumns("SELECT * FROM customers WHERE customers.country LIKE 'G%'"));
+    }
+
+    @Test
+    public void planAndLatency() throws IOException, SQLException {
+
+        NorthwindService plainService = new NorthwindService(plain);
+        NorthwindService indexedService = new NorthwindService(indexed);
+
+        StringBuilder plans = new StringBuilder();
+        for (String name : IndexAdvisor.DEMO) {
+            String sql = indexedService.convertToSql(NorthwindServiceTest.read(name));
+            // without ORDER BY the row order may depend on the chosen index
+            assertEquals(rows(plainService.querySQL(sql)), rows(indexedService.querySQL(sql)), name);
+
+            System.out.println("+++ " + name + " ++++++++++++++++++");
+            String plainPlan = report("without indexes", plain, sql);
+            assertFalse(plainPlan.contains("IX_"), plainPlan);
+            plans.append(report("with indexes", indexed, sql));
+        }
+
+        // every index created for a filter column serves at least one demo query
+        for (String c : IndexAdvisor.demoFilterColumns(NorthwindModel.get().getResolver())) {
+            String index = "IX_" + c.replace('.', '_').toUpperCase(Locale.ROOT);
+            assertTrue(plans.toString().contains(index), index + " not used:\n" + plans);
+        }
+    }
+
+    private static List<String> rows(ColumnarResult result) {
+        List<String> rows = new ArrayList<>();
+        for (int row = 0; row < result.getRowCount(); row++) {
+            StringBuilder b = new StringBuilder();
+            for (int column = 0; column < result.getColumnCount(); column++) {
+                b.append(result.getString(row, column)).append('|');
+            }
+            rows.add(b.toString());
+        }
+        rows.sort(null);
+        return rows;
+    }
+
+    private static String report(String label, NorthwindDatabase database, String sql) throws SQLException {
+        String plan;
+        try (Connection con = database.lease()) {
+            plan = IndexAdvisor.explain(con, sql);
+            System.out.println(label + ":");
+            System.out.println(plan);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            database.query(s -> s.executeQuery(sql).close());
+        }
+        System.out.println(label + " micros: " + (System.nanoTime() - start) / RUNS / 1000);
+        return plan;
+    }
+}
@@ -3,7 +3,8 @@ package ai.koryki.h2;
 import ai.koryki.antlr.AbstractReader;
 import ai.koryki.antlr.kql.KQLReader;
 import ai.koryki.h2.northwind.NorthwindDatabase;
-import ai.koryki.h2.northwind.NorthwindService;
+import ai.koryki.h2.northwind.NorthwindModel;
+import ai.koryki.h2.northwind.NorthwindRegistry;
 import ai.koryki.iql.Bean2Iql;
 import ai.koryki.iql.Bean2Sql;
 import ai.koryki.iql.RelationResolver;
@@ -21,12 +22,12 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 public class NorthwindDatabaseSamplesTest {
 
+    private static NorthwindRegistry.Handle handle;
     private static NorthwindDatabase database;
     private static Schema schema;
     private static RelationResolver resolver;
@@ -35,20 +36,19 @@ public class NorthwindDatabaseSamplesTest {
     @BeforeAll
     public static void startup() throws IOException, SQLException {
 
-        schema = NorthwindService.readDatabaseSchema();
-        Map<String, List<String>> links = NorthwindService.readLinks();
-        resolver = new RelationResolver(schema, links);
-        resolver.setStrict(true);
+        schema = NorthwindModel.get().getSchema();
+        resolver = NorthwindModel.get().getResolver();
 
         long start = System.currentTimeMillis();
-        database = new NorthwindDatabase("samples");
+        handle = NorthwindRegistry.acquire("nw");
+        database = handle.getDatabase();
         System.out.println("loading h2: " + (System.currentTimeMillis() - start));
     }
 
     @AfterAll
     public static void shutdown() throws SQLException {
-        if (database != null) {
-            database.close();
+        if (handle != null) {
+            handle.close();
         }
     }
 
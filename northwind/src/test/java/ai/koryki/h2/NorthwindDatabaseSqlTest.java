@@ -2,6 +2,7 @@ package ai.koryki.h2;
 
 import ai.koryki.antlr.AbstractReader;
 import ai.koryki.h2.northwind.NorthwindDatabase;
+import ai.koryki.h2.northwind.NorthwindRegistry;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -12,22 +13,31 @@ import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
 
 public class NorthwindDatabaseSqlTest {
 
+    private static NorthwindRegistry.Handle handle;
     private static NorthwindDatabase n;
 
     @BeforeAll
     public static void readNorthwindDB() throws IOException, SQLException {
         long start = System.currentTimeMillis();
-        n = new NorthwindDatabase();
+        handle = NorthwindRegistry.acquire("nw");
+        n = handle.getDatabase();
         System.out.println("loading h2: " + (System.currentTimeMillis() - start));
     }
 
     @AfterAll
     public static void closeNorthwindDB() throws SQLException {
-        if (n != null) {
-            n.close();
+        if (handle != null) {
+            handle.close();
         }
     }
 
@@ -193,6 +203,36 @@ public class NorthwindDatabaseSqlTest {
 
     }
 
+    @Test
+    public void concurrentQueries() throws Exception {
+        String sql = "SELECT c.company_name, COUNT(o.order_id) FROM customers c JOIN orders o ON c.customer_id = o.customer_id GROUP BY c.company_name";
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                futures.add(executor.submit(() -> count(sql)));
+            }
+            for (Future<Integer> f : futures) {
+                assertEquals(89, f.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static int count(String sql) throws SQLException {
+        int[] count = new int[1];
+        n.query(s -> {
+            try (ResultSet r = s.executeQuery(sql)) {
+                while (r.next()) {
+                    count[0]++;
+                }
+            }
+        });
+        return count[0];
+    }
+
     private static void runAndPrint(String sql) throws SQLException {
         n.run(s -> {
             try (ResultSet r = s.executeQuery(sql)) {
@@ -0,0 +1,263 @@
+package ai.koryki.h2;
+
+import ai.koryki.h2.northwind.LoadMode;
+import ai.koryki.h2.northwind.NorthwindConfig;
+import ai.koryki.h2.northwind.NorthwindDatabase;
+import ai.koryki.h2.northwind.NorthwindGenerator;
+import ai.koryki.h2.northwind.Storage;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NorthwindDatabaseStartupTest {
+
+    private static final List<String> TABLES = List.of("categories", "customers", "employees", "employee_territories",
+            "order_details", "orders", "products", "region", "shippers", "suppliers", "territories", "us_states");
+
+    @Test
+    public void imageMatchesScripts() throws IOException, SQLException {
+
+        Map<String, String> script = load("startup_script", LoadMode.SCRIPT);
+        Map<String, String> batch = load("startup_batch", LoadMode.BATCH);
+        Map<String, String> image = load("startup_image", LoadMode.IMAGE);
+        Map<String, String> csv = load("startup_csv", LoadMode.CSV);
+        Map<String, String> parallel = load("startup_parallel", LoadMode.PARALLEL);
+
+        assertEquals(script, batch);
+        assertEquals(script, image);
+        assertEquals(script, csv);
+        assertEquals(script, parallel);
+        assertTrue(image.get("orders").startsWith("830 "), image.get("orders"));
+        assertTrue(image.get("order_details").startsWith("2155 "), image.get("order_details"));
+    }
+
+    /**
+     * IMAGE and CSV add their own copy of the data to the jar next to data.sql, which is shipped compressed.
+     */
+    @Test
+    public void resourceSizes() throws IOException {
+
+        long data = size(NorthwindDatabase.DATA);
+        assertTrue(data > 0);
+        System.out.println("data.sql.gz bytes: " + data);
+        System.out.println("image bytes: " + size(NorthwindDatabase.IMAGE));
+        long csv = 0;
+        for (String table : TABLES) {
+            csv += size(NorthwindDatabase.CSV + table + ".csv.gz");
+        }
+        System.out.println("csv bytes: " + csv);
+    }
+
+    @Test
+    public void openAsync() throws SQLException {
+
+        long start = System.currentTimeMillis();
+        CompletableFuture<NorthwindDatabase> future = NorthwindDatabase.openAsync("startup_async");
+        System.out.println("openAsync returned: " + (System.currentTimeMillis() - start));
+        try (NorthwindDatabase database = future.join()) {
+            System.out.println("loading h2 async: " + (System.currentTimeMillis() - start));
+            assertEquals(2155, count(database).get("order_details"));
+        }
+    }
+
+    @Test
+    public void lazyLoadsReferencedTables() throws IOException, SQLException {
+
+        Map<String, String> batch = load("startup_lazy_batch", LoadMode.BATCH);
+        long start = System.currentTimeMillis();
+        try (NorthwindDatabase database = new NorthwindDatabase("startup_lazy", LoadMode.LAZY)) {
+            System.out.println("loading h2 " + LoadMode.LAZY + ": " + (System.currentTimeMillis() - start));
+            assertEquals(0, count(database).get("shippers"));
+
+            database.ensureLoaded("SELECT s.company_name FROM shippers s WHERE s.phone <> 'orders'");
+            Map<String, Integer> counts = count(database);
+            assertEquals(6, counts.get("shippers"));
+            assertEquals(0, counts.get("orders"));
+
+            database.ensureLoaded("SELECT * FROM " + String.join(", ", TABLES));
+            assertEquals(batch, checksum(database));
+        }
+    }
+
+    @Test
+    public void lazyLoadRetriedAfterFailure() throws IOException, SQLException {
+
+        String sql = "SELECT s.company_name FROM shippers s";
+        try (NorthwindDatabase database = new NorthwindDatabase("startup_lazy_failure", LoadMode.LAZY)) {
+            database.run(s -> s.execute("ALTER TABLE shippers ALTER COLUMN phone SET DATA TYPE VARCHAR(1)"));
+            assertThrows(SQLException.class, () -> database.ensureLoaded(sql));
+            assertEquals(0, count(database).get("shippers"));
+
+            database.run(s -> s.execute("ALTER TABLE shippers ALTER COLUMN phone SET DATA TYPE VARCHAR(24)"));
+            database.ensureLoaded(sql);
+            assertEquals(6, count(database).get("shippers"));
+        }
+    }
+
+    @Test
+    public void fileStorageReused() throws IOException, SQLException {
+
+        for (Storage storage : new Storage[]{Storage.FILE, Storage.NIO_MAPPED}) {
+            Path directory = Files.createTempDirectory("northwind");
+            NorthwindConfig config = new NorthwindConfig();
+            config.setStorage(storage);
+            config.setDirectory(directory);
+            config.setCacheSize(4096);
+
+            try {
+                Map<String, Integer> loaded;
+                long start = System.currentTimeMillis();
+                try (NorthwindDatabase database = new NorthwindDatabase("startup_file", config)) {
+                    System.out.println("loading h2 " + storage + ": " + (System.currentTimeMillis() - start));
+                    assertFalse(database.isReused());
+                    loaded = count(database);
+                }
+
+                start = System.currentTimeMillis();
+                try (NorthwindDatabase database = new NorthwindDatabase("startup_file", config)) {
+                    System.out.println("reopening h2 " + storage + ": " + (System.currentTimeMillis() - start));
+                    assertTrue(database.isReused());
+                    assertEquals(loaded, count(database));
+                    assertEquals(830, loaded.get("orders"));
+                }
+
+                // loaded with another mode, the file is loaded again
+                config.setLoadMode(LoadMode.BATCH);
+                try (NorthwindDatabase database = new NorthwindDatabase("startup_file", config)) {
+                    assertFalse(database.isReused());
+                    // an interrupted load leaves no marker
+                    database.run(s -> s.execute("DROP TABLE northwind_loaded"));
+                }
+                try (NorthwindDatabase database = new NorthwindDatabase("startup_file", config)) {
+                    assertFalse(database.isReused());
+                    assertEquals(loaded, count(database));
+                }
+            } finally {
+                delete(directory);
+            }
+        }
+    }
+
+    @Test
+    public void fileStorageReloadsOtherGenerator() throws IOException, SQLException {
+
+        Path directory = Files.createTempDirectory("northwind");
+        try {
+            NorthwindConfig config = new NorthwindConfig();
+            config.setStorage(Storage.FILE);
+            config.setDirectory(directory);
+            config.setGenerator(new NorthwindGenerator(1, 1));
+            try (NorthwindDatabase database = new NorthwindDatabase("startup_generated", config)) {
+                assertFalse(database.isReused());
+            }
+            try (NorthwindDatabase database = new NorthwindDatabase("startup_generated", config)) {
+                assertTrue(database.isReused());
+            }
+            config.setGenerator(new NorthwindGenerator(1, 2));
+            try (NorthwindDatabase database = new NorthwindDatabase("startup_generated", config)) {
+                assertFalse(database.isReused());
+            }
+            config.setGenerator(new NorthwindGenerator(2, 2));
+            try (NorthwindDatabase database = new NorthwindDatabase("startup_generated", config)) {
+                assertFalse(database.isReused());
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static Map<String, String> load(String name, LoadMode mode) throws IOException, SQLException {
+        long start = System.currentTimeMillis();
+        try (NorthwindDatabase database = new NorthwindDatabase(name, mode)) {
+            System.out.println("loading h2 " + mode + ": " + (System.currentTimeMillis() - start));
+            return checksum(database);
+        }
+    }
+
+    /**
+     * @return row count and SHA-256 of the sorted rows by table, each row as its column strings
+     */
+    static Map<String, String> checksum(NorthwindDatabase database) throws SQLException {
+        Map<String, String> result = new LinkedHashMap<>();
+        database.run(s -> {
+            for (String table : TABLES) {
+                List<String> rows = new ArrayList<>();
+                try (ResultSet r = s.executeQuery("SELECT * FROM " + table)) {
+                    int columns = r.getMetaData().getColumnCount();
+                    while (r.next()) {
+                        StringBuilder row = new StringBuilder();
+                        for (int i = 1; i <= columns; i++) {
+                            row.append(r.getString(i)).append('\u0001');
+                        }
+                        rows.add(row.toString());
+                    }
+                }
+                rows.sort(null);
+                MessageDigest digest = sha256();
+                for (String row : rows) {
+                    digest.update(row.getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) '\n');
+                }
+                result.put(table, rows.size() + " " + HexFormat.of().formatHex(digest.digest()));
+            }
+        });
+        return result;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long size(String resource) throws IOException {
+        try (InputStream in = NorthwindDatabase.class.getResourceAsStream(resource)) {
+            return in == null ? 0 : in.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    static Map<String, Integer> count(NorthwindDatabase database) throws SQLException {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        database.run(s -> {
+            for (String table : TABLES) {
+                try (ResultSet r = s.executeQuery("SELECT COUNT(*) FROM " + table)) {
+                    r.next();
+                    result.put(table, r.getInt(1));
+                }
+            }
+        });
+        return result;
+    }
+}
@@ -18,13 +18,13 @@ package ai.koryki.h2;
 
 import ai.koryki.antlr.kql.KQLReader;
 import ai.koryki.h2.northwind.NorthwindDatabase;
-import ai.koryki.h2.northwind.NorthwindService;
+import ai.koryki.h2.northwind.NorthwindModel;
+import ai.koryki.h2.northwind.NorthwindRegistry;
 import ai.koryki.iql.Bean2Iql;
 import ai.koryki.iql.Bean2Sql;
 import ai.koryki.iql.RelationResolver;
 import ai.koryki.iql.query.Out;
 import ai.koryki.iql.query.Query;
-import ai.koryki.model.schema.Schema;
 import ai.koryki.kql.KQL2Bean;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -42,12 +42,12 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 public class NorthwindDatabaseTest {
 
+    private static NorthwindRegistry.Handle handle;
     private static NorthwindDatabase n;
     private static RelationResolver resolver;
 
@@ -55,17 +55,15 @@ public class NorthwindDatabaseTest {
     @BeforeAll
     public static void startup() throws IOException, SQLException {
 
-        Schema schema = NorthwindService.readDatabaseSchema();
-        Map<String, List<String>> links = NorthwindService.readLinks();
-        resolver = new RelationResolver(schema, links);
-        resolver.setStrict(true);
-        n = new NorthwindDatabase("nw");
+        resolver = NorthwindModel.get().getResolver();
+        handle = NorthwindRegistry.acquire("nw");
+        n = handle.getDatabase();
     }
 
     @AfterAll
     public static void shutdown() throws SQLException {
-        if (n != null) {
-            n.close();
+        if (handle != null) {
+            handle.close();
         }
     }
 
@@ -0,0 +1,75 @@
+package ai.koryki.h2;
+
+import ai.koryki.h2.northwind.NorthwindConfig;
+import ai.koryki.h2.northwind.NorthwindDatabase;
+import ai.koryki.h2.northwind.NorthwindGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NorthwindGeneratorTest {
+
+    private static final String CHECKSUM = "SELECT SUM(CAST(o.order_id AS BIGINT) * d.quantity), SUM(d.unit_price * d.quantity), COUNT(DISTINCT o.customer_id), "
+            + "SUM(ORA_HASH(o.customer_id)) FROM orders o JOIN order_details d ON o.order_id = d.order_id";
+
+    @Test
+    public void scaleFactors() throws IOException, SQLException {
+
+        for (int scale : new int[]{1, 10, 100}) {
+            long start = System.currentTimeMillis();
+            try (NorthwindDatabase database = generate("generated_" + scale, new NorthwindGenerator(scale))) {
+                System.out.println("generating h2 " + scale + "x: " + (System.currentTimeMillis() - start));
+                Map<String, Integer> counts = NorthwindDatabaseStartupTest.count(database);
+                assertEquals(91 * scale, counts.get("customers"));
+                assertEquals(830 * scale, counts.get("orders"));
+                assertTrue(counts.get("order_details") > 2 * counts.get("orders"));
+                assertEquals(77, counts.get("products"));
+            }
+        }
+    }
+
+    @Test
+    public void deterministic() throws IOException, SQLException {
+
+        String first;
+        try (NorthwindDatabase database = generate("generated_a", new NorthwindGenerator(10, 7))) {
+            first = checksum(database);
+        }
+        try (NorthwindDatabase database = generate("generated_b", new NorthwindGenerator(10, 7))) {
+            assertEquals(first, checksum(database));
+        }
+        // dotless i, table names and ids must not depend on the default locale
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(Locale.forLanguageTag("tr-TR"));
+        try (NorthwindDatabase database = generate("generated_tr", new NorthwindGenerator(10, 7))) {
+            assertEquals(first, checksum(database));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    private static NorthwindDatabase generate(String name, NorthwindGenerator generator) throws IOException, SQLException {
+        NorthwindConfig config = new NorthwindConfig();
+        config.setGenerator(generator);
+        return new NorthwindDatabase(name, config);
+    }
+
+    private static String checksum(NorthwindDatabase database) throws SQLException {
+        StringBuilder result = new StringBuilder();
+        database.query(s -> {
+            try (ResultSet r = s.executeQuery(CHECKSUM)) {
+                r.next();
+                result.append(r.getString(1)).append(' ').append(r.getString(2)).append(' ').append(r.getString(3))
+                        .append(' ').append(r.getString(4));
+            }
+        });
+        return result.toString();
+    }
+}
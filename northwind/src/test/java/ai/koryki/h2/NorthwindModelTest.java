@@ -0,0 +1,16 @@
+package ai.koryki.h2;
+
+import ai.koryki.h2.northwind.NorthwindModel;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class NorthwindModelTest {
+
+    @Test
+    public void sharedModel() {
+
+        assertSame(NorthwindModel.get(), NorthwindModel.get());
+        assertSame(NorthwindModel.get().getResolver(), NorthwindModel.get().getResolver());
+    }
+}
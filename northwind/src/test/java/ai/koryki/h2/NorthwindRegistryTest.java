@@ -0,0 +1,41 @@
+package ai.koryki.h2;
+
+import ai.koryki.h2.northwind.NorthwindRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class NorthwindRegistryTest {
+
+    @Test
+    public void sharedUntilLastRelease() throws IOException, SQLException {
+
+        long start = System.currentTimeMillis();
+        NorthwindRegistry.Handle first = NorthwindRegistry.acquire("registry");
+        System.out.println("loading h2: " + (System.currentTimeMillis() - start));
+
+        start = System.currentTimeMillis();
+        NorthwindRegistry.Handle second = NorthwindRegistry.acquire("registry");
+        System.out.println("sharing h2: " + (System.currentTimeMillis() - start));
+
+        assertSame(first.getDatabase(), second.getDatabase());
+        assertEquals(2, NorthwindRegistry.references("registry"));
+
+        first.close();
+        first.close();
+        assertEquals(1, NorthwindRegistry.references("registry"));
+        second.close();
+        assertEquals(0, NorthwindRegistry.references("registry"));
+
+        // the in-memory database was dropped, loading it again must not fail on existing tables
+        try (NorthwindRegistry.Handle again = NorthwindRegistry.acquire("registry")) {
+            assertNotSame(first.getDatabase(), again.getDatabase());
+            assertEquals(830, NorthwindDatabaseStartupTest.count(again.getDatabase()).get("orders"));
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package ai.koryki.h2;
+
+import ai.koryki.h2.northwind.NorthwindConfig;
+import ai.koryki.h2.northwind.NorthwindDatabase;
+import ai.koryki.h2.northwind.NorthwindServer;
+import ai.koryki.h2.northwind.NorthwindService;
+import ai.koryki.h2.northwind.QueryBudget;
+import com.fasterxml.jackson.databind.node.TextNode;
+import org.h2.api.ErrorCode;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NorthwindServerTest {
+
+    private static NorthwindService service;
+    private static NorthwindServer server;
+    private static final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeAll
+    public static void startup() throws IOException, SQLException {
+        service = new NorthwindService();
+        server = new NorthwindServer(service);
+        server.setPort(0);
+        long start = System.currentTimeMillis();
+        server.start();
+        System.out.println("starting server: " + (System.currentTimeMillis() - start));
+    }
+
+    @AfterAll
+    public static void shutdown() throws SQLException {
+        server.close();
+        service.close();
+    }
+
+    @Test
+    public void executeSQL() throws IOException, InterruptedException {
+
+        String sql = "SELECT * FROM shippers";
+        HttpResponse<String> response = post("/sql", sql);
+        assertEquals(200, response.statusCode());
+        assertEquals(service.executeSQL(sql), response.body());
+    }
+
+    @Test
+    public void executeKQL() throws IOException, InterruptedException {
+
+        for (String name : NorthwindServiceTest.DEMO) {
+            String kql = NorthwindServiceTest.read(name);
+            HttpResponse<String> response = post("/kql", kql);
+            assertEquals(200, response.statusCode());
+            assertEquals(service.executeKQL(kql), response.body());
+        }
+    }
+
+    @Test
+    public void errors() throws IOException, InterruptedException {
+
+        HttpResponse<String> response = post("/sql", "SELECT * FROM no_such_table");
+        assertEquals(400, response.statusCode());
+        assertTrue(response.body().contains("\"kind\":\"DATABASE\""));
+
+        HttpRequest get = HttpRequest.newBuilder(uri("/sql")).GET().build();
+        assertEquals(405, client.send(get, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        HttpRequest noQuery = json("/sql", "{\"sql\":\"SELECT * FROM shippers\"}").build();
+        assertEquals(400, client.send(noQuery, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        HttpRequest text = HttpRequest.newBuilder(uri("/sql")).header("Content-Type", "text/plain")
+                .POST(HttpRequest.BodyPublishers.ofString("SELECT * FROM shippers")).build();
+        assertEquals(415, client.send(text, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        HttpRequest crossOrigin = json("/sql", body("SELECT * FROM shippers")).header("Origin", "http://evil.example").build();
+        assertEquals(403, client.send(crossOrigin, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    @Test
+    public void readOnly() throws IOException, InterruptedException {
+
+        assertEquals(400, post("/sql", "SELECT * FROM OLD TABLE (DELETE FROM shippers)").statusCode());
+        assertEquals(400, post("/sql", "SELECT FILE_READ('/etc/hostname')").statusCode());
+        assertEquals(400, post("/sql", "CALL CSVWRITE('shippers.csv', 'SELECT * FROM shippers')").statusCode());
+        assertEquals(6, service.querySQL("SELECT * FROM shippers").getRowCount());
+    }
+
+    @Test
+    public void failureAfterFirstChunk() throws IOException, InterruptedException {
+
+        // order_details is far larger than the generator and chunk buffers, the budget fails after the first flush
+        QueryBudget previous = service.getBudget();
+        QueryBudget budget = new QueryBudget();
+        budget.setMaxRows(1000);
+        service.setBudget(budget);
+        try {
+            assertThrows(IOException.class, () -> post("/sql", "SELECT * FROM order_details"));
+        } finally {
+            service.setBudget(previous);
+        }
+        assertEquals(200, post("/sql", "SELECT * FROM shippers").statusCode());
+    }
+
+    @Test
+    public void tcpRequiresPasswords() throws IOException, SQLException {
+
+        try (NorthwindServer remote = new NorthwindServer(service)) {
+            remote.setPort(0);
+            remote.setTcpPort(0);
+            assertThrows(IllegalStateException.class, remote::start);
+
+            remote.setTcpPassword("secret");
+            // the database of the test has no password, sa could log in through the TCP server
+            assertThrows(IllegalStateException.class, remote::start);
+        }
+    }
+
+    @Test
+    public void tcp() throws IOException, SQLException, InterruptedException {
+
+        NorthwindConfig config = new NorthwindConfig();
+        config.setPassword("admin");
+        try (NorthwindDatabase database = new NorthwindDatabase("server_tcp", config);
+             NorthwindService tcpService = new NorthwindService(database);
+             NorthwindServer tcpServer = new NorthwindServer(tcpService)) {
+            tcpServer.setPort(0);
+            tcpServer.setTcpPort(0);
+            tcpServer.setTcpPassword("secret");
+            tcpServer.setMaxTcpConnections(2);
+            long start = System.currentTimeMillis();
+            tcpServer.start();
+            System.out.println("starting tcp server: " + (System.currentTimeMillis() - start));
+            String url = tcpServer.getTcpUrl();
+
+            try (Connection first = DriverManager.getConnection(url, NorthwindServer.TCP_USER, "secret");
+                 Statement stmt = first.createStatement()) {
+                try (ResultSet r = stmt.executeQuery("SELECT COUNT(*) FROM shippers")) {
+                    assertTrue(r.next());
+                    assertEquals(6, r.getInt(1));
+                }
+                assertThrows(SQLException.class, () -> stmt.executeUpdate("DELETE FROM shippers"));
+                assertThrows(SQLException.class, () -> stmt.executeQuery("SELECT FILE_READ('/etc/hostname')"));
+
+                try (Connection second = DriverManager.getConnection(url, NorthwindServer.TCP_USER, "secret")) {
+                    assertTrue(second.isValid(1));
+                    assertThrows(SQLException.class, () -> DriverManager.getConnection(url, NorthwindServer.TCP_USER, "secret"));
+                }
+                // other databases of the JVM, like nw of the HTTP tests, are not served
+                String other = url.substring(0, url.lastIndexOf('/') + 1) + service.getDatabase().getName();
+                assertEquals(ErrorCode.WRONG_USER_OR_PASSWORD, connect(other, "sa", "").getErrorCode());
+            }
+        }
+    }
+
+    /**
+     * @return the failure, the forwarder frees the slot of a closed connection asynchronously
+     */
+    private static SQLException connect(String url, String user, String password) throws SQLException, InterruptedException {
+        for (int i = 0; ; i++) {
+            try {
+                DriverManager.getConnection(url, user, password).close();
+                throw new AssertionError("connected to " + url);
+            } catch (SQLException e) {
+                if (e.getErrorCode() != ErrorCode.CONNECTION_BROKEN_1 || i == 50) {
+                    return e;
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    private static HttpResponse<String> post(String path, String query) throws IOException, InterruptedException {
+        return client.send(json(path, body(query)).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static HttpRequest.Builder json(String path, String body) {
+        return HttpRequest.newBuilder(uri(path)).header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body));
+    }
+
+    private static String body(String query) {
+        return "{\"query\":" + new TextNode(query) + "}";
+    }
+
+    private static URI uri(String path) {
+        try {
+            return new URI("http", null, server.getAddress().getHostAddress(), server.getPort(), path, null, null);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
@@ -0,0 +1,535 @@
+package ai.koryki.h2;
+
+import ai.koryki.antlr.AbstractReader;
+import ai.koryki.h2.northwind.BatchResult;
+import ai.koryki.h2.northwind.CancellationToken;
+import ai.koryki.h2.northwind.ColumnarResult;
+import ai.koryki.h2.northwind.HistogramMetrics;
+import ai.koryki.h2.northwind.IndexAdvisor;
+import ai.koryki.h2.northwind.NorthwindConfig;
+import ai.koryki.h2.northwind.NorthwindDatabase;
+import ai.koryki.h2.northwind.NorthwindException;
+import ai.koryki.h2.northwind.NorthwindService;
+import ai.koryki.h2.northwind.Page;
+import ai.koryki.h2.northwind.QueryAbortedException;
+import ai.koryki.h2.northwind.QueryBudget;
+import ai.koryki.h2.northwind.QueryCache;
+import ai.koryki.h2.northwind.QueryListener;
+import ai.koryki.h2.northwind.ResultCache;
+import ai.koryki.h2.northwind.ResultCursor;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NorthwindServiceTest {
+
+    static final List<String> DEMO = IndexAdvisor.DEMO;
+
+    private static final String CROSS_JOIN = "SELECT COUNT(*) FROM order_details a, order_details b, order_details c";
+
+    private static NorthwindService service;
+
+    @BeforeAll
+    public static void startup() {
+        long start = System.currentTimeMillis();
+        service = new NorthwindService();
+        System.out.println("loading service: " + (System.currentTimeMillis() - start));
+    }
+
+    @AfterAll
+    public static void shutdown() throws SQLException {
+        service.close();
+    }
+
+    @Test
+    public void executeKQLAsync() throws Exception {
+
+        String kql = read("employeeswithorders");
+        String expected = service.executeKQL(kql);
+
+        service.setMaxConcurrency(4);
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(service.executeKQLAsync(kql));
+        }
+        for (CompletableFuture<String> f : futures) {
+            assertEquals(expected, f.get());
+        }
+    }
+
+    @Test
+    public void executeKQLBatch() throws IOException {
+
+        List<String> queries = new ArrayList<>();
+        for (String name : DEMO) {
+            queries.add(read(name));
+        }
+        queries.add("no kql");
+
+        long start = System.currentTimeMillis();
+        List<BatchResult> results = service.executeKQLBatch(queries);
+        System.out.println("batch: " + (System.currentTimeMillis() - start));
+
+        assertEquals(queries.size(), results.size());
+        for (int i = 0; i < DEMO.size(); i++) {
+            assertTrue(results.get(i).isSuccess());
+            assertEquals(service.executeKQL(queries.get(i)), results.get(i).getJson());
+        }
+        BatchResult failed = results.get(DEMO.size());
+        assertEquals("no kql", failed.getQuery());
+        assertFalse(failed.isSuccess());
+        assertNotNull(failed.getError());
+    }
+
+    @Test
+    public void executeKQLBatchAfterClose() throws IOException, SQLException {
+
+        NorthwindService closed = new NorthwindService(service.getDatabase());
+        closed.close();
+
+        List<BatchResult> results = closed.executeKQLBatch(List.of(read("employeeswithorders")));
+        assertFalse(results.get(0).isSuccess());
+        assertEquals(NorthwindException.Kind.INTERNAL, results.get(0).getError().getKind());
+        assertTrue(results.get(0).getError().getCause() instanceof RejectedExecutionException);
+    }
+
+    private static final AtomicInteger IN_FLIGHT = new AtomicInteger();
+    private static final AtomicInteger MAX_IN_FLIGHT = new AtomicInteger();
+
+    /**
+     * Called by queries as SQL function IN_FLIGHT(), counts the queries running at the same time.
+     */
+    public static int inFlight() throws InterruptedException {
+        MAX_IN_FLIGHT.accumulateAndGet(IN_FLIGHT.incrementAndGet(), Math::max);
+        try {
+            Thread.sleep(50);
+        } finally {
+            IN_FLIGHT.decrementAndGet();
+        }
+        return 1;
+    }
+
+    @Test
+    public void maxConcurrency() throws Exception {
+
+        NorthwindConfig config = new NorthwindConfig();
+        config.setPoolSize(16);
+        try (NorthwindDatabase database = new NorthwindDatabase("concurrency", config);
+             NorthwindService concurrent = new NorthwindService(database)) {
+            database.run(s -> s.execute("CREATE ALIAS IN_FLIGHT FOR \"" + NorthwindServiceTest.class.getName() + ".inFlight\""));
+            String sql = "SELECT IN_FLIGHT()";
+            String expected = concurrent.executeSQL(sql);
+            assertEquals(16, concurrent.getMaxConcurrency());
+
+            concurrent.setMaxConcurrency(8);
+            MAX_IN_FLIGHT.set(0);
+            List<CompletableFuture<String>> first = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                first.add(concurrent.executeSQLAsync(sql));
+            }
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (IN_FLIGHT.get() < 8 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            // lowered while calls hold permits
+            concurrent.setMaxConcurrency(1);
+            List<CompletableFuture<String>> second = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                second.add(concurrent.executeSQLAsync(sql));
+            }
+            for (CompletableFuture<String> f : first) {
+                assertEquals(expected, f.get());
+            }
+            assertEquals(8, MAX_IN_FLIGHT.get());
+
+            // the first calls returned their permits, at most one call runs from now on
+            MAX_IN_FLIGHT.set(IN_FLIGHT.get());
+            for (CompletableFuture<String> f : second) {
+                assertEquals(expected, f.get());
+            }
+            assertEquals(1, MAX_IN_FLIGHT.get());
+        }
+    }
+
+    @Test
+    public void convertToSqlAsync() throws Exception {
+
+        String kql = read("employeeswithorders");
+        assertEquals(service.convertToSql(kql), service.convertToSqlAsync(kql).get());
+    }
+
+    @Test
+    public void queryCache() throws IOException {
+
+        List<String> corpus = new ArrayList<>();
+        for (String name : DEMO) {
+            corpus.add(read(name));
+        }
+        QueryCache cache = service.getQueryCache();
+        cache.clear();
+
+        int rounds = 20;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (String kql : corpus) {
+                cache.clear();
+                service.convertToSql(kql);
+            }
+        }
+        long cold = System.nanoTime() - start;
+
+        long hits = cache.getHits();
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (String kql : corpus) {
+                // layout differences hit the same entry
+                service.convertToSql("  " + kql.replace("\n", "\n\t") + "\n");
+            }
+        }
+        long warm = System.nanoTime() - start;
+
+        System.out.println("translate cold: " + cold / 1_000_000 + " ms, cached: " + warm / 1_000_000 + " ms, " + cache);
+        assertEquals(hits + rounds * corpus.size(), cache.getHits());
+    }
+
+    @Test
+    public void executeSQL() throws IOException {
+
+        String json = service.executeSQL("SELECT shipper_id, company_name FROM shippers ORDER BY shipper_id");
+        Map<String, Map<String, String>> result = new ObjectMapper().readValue(json, new TypeReference<>() {});
+
+        assertEquals(6, result.size());
+        assertEquals("1", result.get("0").get("1"));
+        assertEquals("6", result.get("5").get("1"));
+    }
+
+    @Test
+    public void executeKQLStreamed() throws IOException {
+
+        String kql = read("employeeswithorders");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.executeKQL(kql, out);
+
+        assertEquals(service.executeKQL(kql), out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void querySQL() {
+
+        ColumnarResult result = service.querySQL("SELECT e.employee_id, COUNT(*), MIN(o.order_date), e.last_name "
+                + "FROM orders o JOIN employees e ON o.employee_id = e.employee_id "
+                + "GROUP BY e.employee_id, e.last_name ORDER BY e.employee_id");
+
+        assertEquals(9, result.getRowCount());
+        assertEquals(4, result.getColumnCount());
+        assertEquals(1, result.getInt(0, 0));
+        assertTrue(result.getLong(0, 1) > 0);
+        assertNotNull(result.getDate(0, 2));
+        assertEquals("Davolio", result.getString(0, 3));
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> result.getInt(0, 1));
+        assertTrue(e.getMessage().contains("BIGINT"), e.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> result.getDouble(0, 3));
+        assertThrows(IllegalArgumentException.class, () -> result.getDate(0, 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> result.getString(0, 4));
+    }
+
+    @Test
+    public void numericJson() throws IOException {
+
+        String sql = "SELECT product_id, unit_price, CAST(unit_price AS DECIMAL(10, 2)), unit_price * units_in_stock, "
+                + "CAST(unit_price AS DOUBLE PRECISION) / 3, CAST(unit_price AS DECIMAL(30, 20)) / 7 "
+                + "FROM products ORDER BY product_id";
+        ColumnarResult result = service.querySQL(sql);
+        StringWriter out = new StringWriter();
+        try (JsonGenerator g = new ObjectMapper().getFactory().createGenerator(out)) {
+            result.writeJson(g, 1);
+        }
+        assertEquals(service.executeSQL(sql), out.toString());
+
+        for (String name : DEMO) {
+            String kql = read(name);
+            assertEquals(service.executeKQL(kql), service.queryKQL(kql).toJson(), name);
+        }
+    }
+
+    @Test
+    public void queryKQL() throws IOException {
+
+        String kql = read("employeeswithorders");
+        ColumnarResult result = service.queryKQL(kql);
+
+        assertEquals(9, result.getRowCount());
+        assertEquals(service.executeKQL(kql), result.toJson());
+    }
+
+    @Test
+    public void executeSQLPage() {
+
+        String sql = "SELECT order_id, product_id, quantity FROM order_details ORDER BY order_id, product_id";
+        int pages = 0;
+        int rows = 0;
+        String continuation = null;
+        do {
+            Page page = service.executeSQLPage(sql, 500, continuation);
+            pages++;
+            rows += page.getRows().getRowCount();
+            assertEquals(page.hasMore(), page.getContinuation() != null);
+            continuation = page.getContinuation();
+        } while (continuation != null);
+
+        assertEquals(5, pages);
+        assertEquals(2155, rows);
+        assertThrows(RuntimeException.class, () -> service.executeSQLPage("SELECT 1", 10, Page.class.getName()));
+    }
+
+    @Test
+    public void openSQLCursor() throws SQLException {
+
+        int rows = 0;
+        int pages = 0;
+        try (ResultCursor cursor = service.openSQLCursor("SELECT * FROM order_details", 1000)) {
+            while (cursor.hasMore()) {
+                Page page = cursor.next();
+                assertTrue(page.getRows().getRowCount() <= 1000);
+                rows += page.getRows().getRowCount();
+                pages++;
+            }
+        }
+        assertEquals(3, pages);
+        assertEquals(2155, rows);
+    }
+
+    @Test
+    public void cursorBudget() throws SQLException {
+
+        QueryBudget previous = service.getBudget();
+        QueryBudget budget = new QueryBudget();
+        budget.setMaxRows(1500);
+        HistogramMetrics metrics = new HistogramMetrics();
+        service.setBudget(budget);
+        service.setQueryListener(metrics);
+        try {
+            try (ResultCursor cursor = service.openSQLCursor("SELECT * FROM shippers", 2)) {
+                cursor.next();
+                assertEquals(0, metrics.getLatency().getCount());
+            }
+            assertEquals(1, metrics.getLatency().getCount());
+
+            ResultCursor cursor = service.openSQLCursor("SELECT * FROM order_details", 1000);
+            assertEquals(1000, cursor.next().getRows().getRowCount());
+            QueryAbortedException e = assertThrows(QueryAbortedException.class, cursor::next);
+            assertEquals(QueryAbortedException.Reason.ROW_LIMIT, e.getReason());
+            assertFalse(cursor.hasMore());
+            assertEquals(1, metrics.getFailures(NorthwindException.Kind.ABORTED));
+            cursor.close();
+            assertEquals(1, metrics.getLatency().getCount());
+        } finally {
+            service.setBudget(previous);
+            service.setQueryListener(null);
+        }
+    }
+
+    @Test
+    public void cursorIdleTimeout() throws IOException, SQLException, InterruptedException {
+
+        NorthwindConfig config = new NorthwindConfig();
+        config.setPoolSize(1);
+        config.setCursorIdleTimeout(Duration.ofMillis(100));
+        try (NorthwindDatabase database = new NorthwindDatabase("cursor_idle", config)) {
+            NorthwindService idle = new NorthwindService(database);
+            ResultCursor cursor = idle.openSQLCursor("SELECT * FROM order_details", 100);
+            cursor.next();
+            Thread.sleep(500);
+            assertFalse(cursor.hasMore());
+            assertThrows(SQLException.class, cursor::next);
+            // the only session of the pool is available again
+            assertEquals(6, idle.querySQL("SELECT * FROM shippers").getRowCount());
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void rowBudget() {
+
+        QueryBudget budget = new QueryBudget();
+        budget.setMaxRows(100);
+        QueryAbortedException e = withBudget(budget, () -> service.executeSQL("SELECT * FROM order_details"));
+        assertEquals(QueryAbortedException.Reason.ROW_LIMIT, e.getReason());
+    }
+
+    @Test
+    public void rowBudgetStopsEarly() {
+
+        QueryBudget budget = new QueryBudget();
+        budget.setMaxRows(10);
+        long start = System.currentTimeMillis();
+        QueryAbortedException e = withBudget(budget,
+                () -> service.querySQL("SELECT a.order_id, b.order_id FROM order_details a, order_details b"));
+        long elapsed = System.currentTimeMillis() - start;
+        System.out.println("row budget on 4.6M rows: " + elapsed);
+        assertEquals(QueryAbortedException.Reason.ROW_LIMIT, e.getReason());
+        assertTrue(elapsed < 10_000);
+    }
+
+    @Test
+    public void cancelledToken() throws IOException {
+
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        String kql = read("employeeswithorders");
+        for (Executable call : List.<Executable>of(
+                () -> service.querySQL("SELECT * FROM shippers", token),
+                () -> service.queryKQL(kql, token),
+                () -> service.executeSQLPage("SELECT * FROM shippers", 2, null, token),
+                () -> service.executeKQLPage(kql, 2, null, token),
+                () -> service.openSQLCursor("SELECT * FROM shippers", 2, token),
+                () -> service.openKQLCursor(kql, 2, token))) {
+            QueryAbortedException e = assertThrows(QueryAbortedException.class, call);
+            assertEquals(QueryAbortedException.Reason.CANCELLED, e.getReason());
+        }
+        List<BatchResult> results = service.executeKQLBatch(List.of(kql, kql), token);
+        for (BatchResult result : results) {
+            assertEquals(NorthwindException.Kind.ABORTED, result.getError().getKind());
+        }
+    }
+
+    @Test
+    public void timeout() {
+
+        QueryBudget budget = new QueryBudget();
+        budget.setTimeoutSeconds(1);
+        QueryAbortedException e = withBudget(budget, () -> service.executeSQL(CROSS_JOIN));
+        assertEquals(QueryAbortedException.Reason.TIMEOUT, e.getReason());
+    }
+
+    @Test
+    public void cancel() throws InterruptedException {
+
+        CancellationToken token = new CancellationToken();
+        Thread canceller = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                return;
+            }
+            token.cancel();
+        });
+        canceller.start();
+        QueryAbortedException e = assertThrows(QueryAbortedException.class, () -> service.executeSQL(CROSS_JOIN, token));
+        assertEquals(QueryAbortedException.Reason.CANCELLED, e.getReason());
+        canceller.join();
+    }
+
+    @Test
+    public void resultCache() throws SQLException {
+
+        ResultCache cache = new ResultCache(1 << 20, Duration.ofMinutes(1));
+        service.setResultCache(cache);
+        try {
+            String sql = "SELECT * FROM shippers";
+            String first = service.executeSQL(sql);
+            assertEquals(first, service.executeSQL(sql));
+            assertEquals(1, cache.getHits());
+
+            service.getDatabase().run(s -> s.executeUpdate("UPDATE shippers SET phone = phone"));
+            assertEquals(first, service.executeSQL(sql));
+            assertEquals(1, cache.getHits());
+            assertEquals(2, cache.getMisses());
+            System.out.println(cache);
+        } finally {
+            service.setResultCache(null);
+        }
+    }
+
+    @Test
+    public void metrics() throws IOException {
+
+        HistogramMetrics metrics = new HistogramMetrics();
+        service.setQueryListener(metrics);
+        try {
+            service.getQueryCache().clear();
+            for (String name : DEMO) {
+                service.executeKQL(read(name));
+            }
+            NorthwindException e = assertThrows(NorthwindException.class, () -> service.executeSQL("SELECT * FROM no_such_table"));
+            assertEquals(NorthwindException.Kind.DATABASE, e.getKind());
+
+            for (QueryListener.Stage stage : QueryListener.Stage.values()) {
+                assertEquals(DEMO.size(), metrics.getStage(stage).getCount());
+            }
+            assertEquals(DEMO.size(), metrics.getLatency().getCount());
+            assertTrue(metrics.getRows().getMax() > 0);
+            assertEquals(1, metrics.getFailures(NorthwindException.Kind.DATABASE));
+            System.out.println(metrics);
+        } finally {
+            service.setQueryListener(null);
+        }
+    }
+
+    @Test
+    public void flightRecorderEvents() throws IOException {
+
+        String sql = "SELECT * FROM shippers";
+        Path file = Files.createTempFile("northwind", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("ai.koryki.h2.QueryExecute");
+            recording.start();
+            service.executeSQL(sql);
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            assertEquals(1, events.size());
+            assertEquals(sql.hashCode(), events.get(0).getInt("sqlHash"));
+            assertEquals(6, events.get(0).getLong("rows"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static QueryAbortedException withBudget(QueryBudget budget, Executable executable) {
+        QueryBudget previous = service.getBudget();
+        service.setBudget(budget);
+        try {
+            return assertThrows(QueryAbortedException.class, executable);
+        } finally {
+            service.setBudget(previous);
+        }
+    }
+
+    static String read(String name) throws IOException {
+        try (InputStream in = NorthwindDatabase.class.getResourceAsStream("/ai/koryki/databases/northwind/demo/" + name + ".kql")) {
+            return AbstractReader.convert(in);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package ai.koryki.h2;
+
+import ai.koryki.h2.northwind.NorthwindDatabase;
+import ai.koryki.h2.northwind.SqlScriptReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SqlScriptReaderTest {
+
+    @Test
+    public void semicolonInLiteral() throws IOException {
+        List<String> statements = read("INSERT INTO t VALUES ('a;b', 'it''s; here');\nINSERT INTO t VALUES ('c');");
+        assertEquals(List.of("INSERT INTO t VALUES ('a;b', 'it''s; here')", "INSERT INTO t VALUES ('c')"), statements);
+    }
+
+    @Test
+    public void quotedIdentifier() throws IOException {
+        List<String> statements = read("SELECT \"a;b\" FROM t;");
+        assertEquals(List.of("SELECT \"a;b\" FROM t"), statements);
+    }
+
+    @Test
+    public void comments() throws IOException {
+        List<String> statements = read("-- header; with semicolon\n"
+                + "SELECT 1 -- trailing; comment\n;\n"
+                + "/* block; comment */ SELECT '--not a comment', 5 - 3;\n"
+                + "-- footer");
+        assertEquals(List.of("SELECT 1", "SELECT '--not a comment', 5 - 3"), statements);
+    }
+
+    @Test
+    public void lastStatementWithoutSemicolon() throws IOException {
+        List<String> statements = read(";; SELECT 1;\n\n SELECT 2\n");
+        assertEquals(List.of("SELECT 1", "SELECT 2"), statements);
+    }
+
+    @Test
+    public void unterminatedLiteral() {
+        assertThrows(EOFException.class, () -> read("SELECT 'abc;"));
+    }
+
+    @Test
+    public void data() throws IOException {
+        int inserts = 0;
+        try (SqlScriptReader reader = SqlScriptReader.open(NorthwindDatabase.DATA)) {
+            String statement;
+            while ((statement = reader.next()) != null) {
+                assertTrue(statement.startsWith("INSERT INTO "));
+                inserts++;
+            }
+        }
+        assertEquals(3368, inserts);
+    }
+
+    private static List<String> read(String script) throws IOException {
+        List<String> statements = new ArrayList<>();
+        try (SqlScriptReader reader = new SqlScriptReader(new StringReader(script))) {
+            String statement;
+            while ((statement = reader.next()) != null) {
+                statements.add(statement);
+            }
+        }
+        return statements;
+    }
+}
@@ -0,0 +1,240 @@
+package ai.koryki.h2;
+
+import ai.koryki.antlr.AbstractReader;
+import ai.koryki.h2.northwind.ColumnarResult;
+import ai.koryki.h2.northwind.NorthwindConfig;
+import ai.koryki.h2.northwind.NorthwindDatabase;
+import ai.koryki.h2.northwind.NorthwindService;
+import ai.koryki.h2.northwind.SummaryTables;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SummaryTablesTest {
+
+    private static final String REVENUE_BY_CUSTOMER = "SELECT o.customer_id, SUM(od.unit_price * od.quantity * (1 - od.discount)) revenue"
+            + " FROM orders o INNER JOIN order_details od ON o.order_id = od.order_id"
+            + " GROUP BY o.customer_id ORDER BY o.customer_id";
+
+    private static final String EMPLOYEE_RANKING = "SELECT e.last_name, SUM(od.quantity * od.unit_price) sales, MAX(o.order_date) last_order"
+            + " FROM employees e JOIN orders o ON e.employee_id = o.employee_id JOIN order_details od ON od.order_id = o.order_id"
+            + " WHERE o.order_date >= DATE '2023-01-01'"
+            + " GROUP BY e.last_name HAVING SUM(od.quantity) > 100 ORDER BY sales DESC, e.last_name";
+
+    private static final String MONTHLY_QUANTITY = "SELECT EXTRACT(YEAR FROM o.order_date) y, EXTRACT(MONTH FROM o.order_date) m, SUM(od.quantity) quantity"
+            + " FROM orders o LEFT JOIN order_details od ON o.order_id = od.order_id"
+            + " GROUP BY y, m ORDER BY y, m";
+
+    private static final String MONTHLY_ORDER_COUNTS = "SELECT EXTRACT(YEAR FROM o.order_date) y, EXTRACT(MONTH FROM o.order_date) m,"
+            + " COUNT(DISTINCT o.order_id) orders, COUNT(DISTINCT o.customer_id) customers, COUNT(*) lines, SUM(od.quantity) quantity"
+            + " FROM orders o JOIN order_details od ON o.order_id = od.order_id"
+            + " GROUP BY y, m ORDER BY y, m";
+
+    private static final String LINES_BY_SHIPPER = "SELECT s.company_name, COUNT(*) lines"
+            + " FROM shippers s LEFT JOIN orders o ON s.shipper_id = o.ship_via LEFT JOIN order_details od ON o.order_id = od.order_id"
+            + " GROUP BY s.company_name ORDER BY s.company_name";
+
+    private static NorthwindDatabase plain;
+    private static NorthwindDatabase summary;
+
+    @BeforeAll
+    public static void startup() throws IOException, SQLException {
+        plain = new NorthwindDatabase("summary_plain");
+
+        NorthwindConfig config = new NorthwindConfig();
+        config.setSummaryTables(true);
+        long start = System.currentTimeMillis();
+        summary = new NorthwindDatabase("summary_tables", config);
+        System.out.println("loading h2 with summary tables: " + (System.currentTimeMillis() - start));
+    }
+
+    @AfterAll
+    public static void shutdown() throws SQLException {
+        plain.close();
+        summary.close();
+    }
+
+    @Test
+    public void rewrite() {
+
+        String rewritten = SummaryTables.rewrite(REVENUE_BY_CUSTOMER);
+        assertEquals("SELECT o.customer_id, SUM(od.net_amount) revenue"
+                + " FROM orders o INNER JOIN order_totals od ON o.order_id = od.order_id"
+                + " GROUP BY o.customer_id ORDER BY o.customer_id", rewritten);
+        assertTrue(SummaryTables.rewrite(EMPLOYEE_RANKING).contains("SUM(od.amount) sales"));
+        assertTrue(SummaryTables.rewrite(EMPLOYEE_RANKING).contains("HAVING SUM(od.quantity) > 100"));
+        assertEquals("SELECT EXTRACT(YEAR FROM o.order_date) y, EXTRACT(MONTH FROM o.order_date) m,"
+                + " COUNT(DISTINCT o.order_id) orders, COUNT(DISTINCT o.customer_id) customers, SUM(COALESCE(od.lines, 1)) lines, SUM(od.quantity) quantity"
+                + " FROM orders o JOIN order_totals od ON o.order_id = od.order_id"
+                + " GROUP BY y, m ORDER BY y, m", SummaryTables.rewrite(MONTHLY_ORDER_COUNTS));
+        assertTrue(SummaryTables.rewrite(LINES_BY_SHIPPER).contains("SUM(COALESCE(od.lines, 1)) lines"));
+    }
+
+    @Test
+    public void fallback() {
+
+        for (String sql : List.of(
+                // no aggregation
+                "SELECT o.order_id FROM orders o JOIN order_details od ON o.order_id = od.order_id",
+                // depends on the number of detail rows
+                "SELECT o.customer_id, COUNT(o.order_id) FROM orders o JOIN order_details od ON o.order_id = od.order_id GROUP BY o.customer_id",
+                "SELECT o.customer_id, SUM(DISTINCT od.quantity) FROM orders o JOIN order_details od ON o.order_id = od.order_id GROUP BY o.customer_id",
+                "SELECT DISTINCT o.customer_id, SUM(od.quantity) FROM orders o JOIN order_details od ON o.order_id = od.order_id GROUP BY o.customer_id",
+                "SELECT o.customer_id, SUM(o.freight) FROM orders o JOIN order_details od ON o.order_id = od.order_id GROUP BY o.customer_id",
+                // reads a detail column
+                "SELECT od.product_id, SUM(od.quantity) FROM order_details od GROUP BY od.product_id",
+                "SELECT p.product_name, SUM(od.quantity) FROM products p JOIN order_details od ON p.product_id = od.product_id GROUP BY p.product_name",
+                "SELECT o.customer_id, SUM(od.quantity) FROM orders o JOIN order_details od ON o.order_id = od.order_id WHERE od.discount > 0 GROUP BY o.customer_id",
+                "SELECT o.customer_id, SUM(quantity) FROM orders o JOIN order_details od ON o.order_id = od.order_id GROUP BY o.customer_id",
+                "SELECT o.customer_id, COUNT(DISTINCT od.product_id) FROM orders o JOIN order_details od ON o.order_id = od.order_id GROUP BY o.customer_id",
+                // not a measure
+                "SELECT o.customer_id, SUM(od.unit_price) FROM orders o JOIN order_details od ON o.order_id = od.order_id GROUP BY o.customer_id",
+                // subquery and window function
+                "SELECT o.customer_id, SUM(od.quantity) FROM orders o JOIN order_details od ON o.order_id = od.order_id"
+                        + " WHERE o.customer_id IN (SELECT customer_id FROM customers) GROUP BY o.customer_id",
+                "SELECT o.customer_id, SUM(od.quantity) OVER (PARTITION BY o.customer_id) FROM orders o JOIN order_details od ON o.order_id = od.order_id GROUP BY o.customer_id, od.quantity")) {
+            assertNull(SummaryTables.rewrite(sql), sql);
+            assertEquals(sql, summary.rewrite(sql));
+        }
+    }
+
+    @Test
+    public void sameResults() throws IOException {
+
+        NorthwindService plainService = new NorthwindService(plain);
+        NorthwindService summaryService = new NorthwindService(summary);
+        for (String sql : List.of(REVENUE_BY_CUSTOMER, EMPLOYEE_RANKING, MONTHLY_QUANTITY, MONTHLY_ORDER_COUNTS, LINES_BY_SHIPPER)) {
+            assertTrue(summary.rewrite(sql).contains(SummaryTables.TABLE));
+
+            long start = System.nanoTime();
+            ColumnarResult expected = plainService.querySQL(sql);
+            long base = System.nanoTime() - start;
+            start = System.nanoTime();
+            ColumnarResult actual = summaryService.querySQL(sql);
+            long summarized = System.nanoTime() - start;
+            System.out.println("base tables: " + base / 1000 + "us, summary: " + summarized / 1000 + "us");
+            assertSameResult(sql, expected, actual);
+        }
+    }
+
+    /**
+     * The KQL demo and sample queries summing order details, as translated by the service,
+     * are rewritten and give the results of the base tables.
+     */
+    @Test
+    public void translatedQueries() throws IOException {
+
+        NorthwindService plainService = new NorthwindService(plain);
+        NorthwindService summaryService = new NorthwindService(summary);
+        for (String name : List.of("demo/employeeranking", "samples/orderanalysis")) {
+            String sql = summaryService.convertToSql(read(name));
+            System.out.println(name + ": " + sql);
+            assertTrue(summary.rewrite(sql).contains(SummaryTables.TABLE), sql);
+            assertSameResult(sql, plainService.querySQL(sql), summaryService.querySQL(sql));
+        }
+    }
+
+    @Test
+    public void refreshWhileQuerying() throws IOException, SQLException {
+
+        NorthwindDatabase database = newSummaryDatabase("summary_refresh");
+        try {
+            NorthwindService service = new NorthwindService(database);
+            String expected = service.executeSQL(MONTHLY_QUANTITY);
+            CompletableFuture<Void> refresh = CompletableFuture.runAsync(() -> {
+                try {
+                    for (int i = 0; i < 20; i++) {
+                        database.refreshSummaries();
+                    }
+                } catch (SQLException e) {
+                    throw new CompletionException(e);
+                }
+            });
+            int queries = 0;
+            while (!refresh.isDone()) {
+                assertEquals(expected, service.executeSQL(MONTHLY_QUANTITY));
+                queries++;
+            }
+            refresh.join();
+            System.out.println("queries during refresh: " + queries);
+            assertTrue(database.rewrite(MONTHLY_QUANTITY).contains(SummaryTables.TABLE));
+        } finally {
+            database.close();
+        }
+    }
+
+    @Test
+    public void tableMissingAfterRewrite() throws IOException, SQLException {
+
+        NorthwindDatabase database = newSummaryDatabase("summary_missing");
+        try {
+            NorthwindService service = new NorthwindService(database);
+            String expected = service.executeSQL(MONTHLY_QUANTITY);
+            // as between dropping and renaming in SummaryTables.create, the rewrite still applies
+            try (Connection c = DriverManager.getConnection(database.getUrl(), "sa", "");
+                 Statement s = c.createStatement()) {
+                s.execute("DROP TABLE " + SummaryTables.TABLE);
+            }
+            assertTrue(database.rewrite(MONTHLY_QUANTITY).contains(SummaryTables.TABLE));
+            assertEquals(expected, service.executeSQL(MONTHLY_QUANTITY));
+        } finally {
+            database.close();
+        }
+    }
+
+    private static void assertSameResult(String sql, ColumnarResult expected, ColumnarResult actual) {
+        assertEquals(expected.getRowCount(), actual.getRowCount(), sql);
+        for (int row = 0; row < expected.getRowCount(); row++) {
+            for (int column = 0; column < expected.getColumnCount(); column++) {
+                Object e = expected.getObject(row, column);
+                if (e instanceof Number) {
+                    assertEquals(((Number) e).doubleValue(), actual.getDouble(row, column),
+                            Math.abs(((Number) e).doubleValue()) * 1e-6, sql);
+                } else {
+                    assertEquals(e, actual.getObject(row, column), sql);
+                }
+            }
+        }
+    }
+
+    private static String read(String name) throws IOException {
+        try (InputStream in = NorthwindDatabase.class.getResourceAsStream("/ai/koryki/databases/northwind/" + name + ".kql")) {
+            return AbstractReader.convert(in);
+        }
+    }
+
+    @Test
+    public void staleAfterUpdate() throws IOException, SQLException {
+
+        NorthwindDatabase database = newSummaryDatabase("summary_stale");
+        try {
+            assertTrue(database.rewrite(REVENUE_BY_CUSTOMER).contains(SummaryTables.TABLE));
+            database.run(s -> s.executeUpdate("UPDATE order_details SET quantity = quantity + 1 WHERE order_id = 10248"));
+            assertEquals(REVENUE_BY_CUSTOMER, database.rewrite(REVENUE_BY_CUSTOMER));
+            database.refreshSummaries();
+            assertTrue(database.rewrite(REVENUE_BY_CUSTOMER).contains(SummaryTables.TABLE));
+        } finally {
+            database.close();
+        }
+    }
+
+    private static NorthwindDatabase newSummaryDatabase(String name) throws IOException, SQLException {
+        NorthwindConfig config = new NorthwindConfig();
+        config.setSummaryTables(true);
+        return new NorthwindDatabase(name, config);
+    }
+}